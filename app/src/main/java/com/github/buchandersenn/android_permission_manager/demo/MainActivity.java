@@ -69,7 +69,7 @@ public class MainActivity extends AppCompatActivity implements ActivityCompat.On
 
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
-        permissionManager.handlePermissionResult(requestCode, grantResults);
+        permissionManager.handlePermissionResult(requestCode, permissions, grantResults);
     }
 
     private void showCameraPreview() {
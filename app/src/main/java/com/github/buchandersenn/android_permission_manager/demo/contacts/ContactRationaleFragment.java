@@ -51,7 +51,7 @@ public class ContactRationaleFragment extends Fragment implements FragmentCompat
 
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
-        permissionManager.handlePermissionResult(requestCode, grantResults);
+        permissionManager.handlePermissionResult(requestCode, permissions, grantResults);
     }
 
     private void onCancel() {
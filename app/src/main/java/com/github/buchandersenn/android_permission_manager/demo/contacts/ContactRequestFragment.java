@@ -46,7 +46,7 @@ public class ContactRequestFragment extends Fragment implements FragmentCompat.O
 
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
-        permissionManager.handlePermissionResult(requestCode, grantResults);
+        permissionManager.handlePermissionResult(requestCode, permissions, grantResults);
     }
 
     private void showContacts() {
@@ -0,0 +1,84 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import com.github.buchandersenn.android_permission_manager.callbacks.OnPermissionDeniedCallback;
+import com.github.buchandersenn.android_permission_manager.callbacks.OnPermissionGrantedCallback;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluating many features requiring overlapping permissions, with a {@link FeatureGate} and
+ * with a separate check per feature.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FeatureGateBenchmark {
+    private static final int PERMISSION_COUNT = 8;
+    private static final int PERMISSIONS_PER_FEATURE = 3;
+
+    @Param({"8", "30"})
+    public int featureCount;
+
+    private PermissionManager manager;
+    private PermissionSet[] featurePermissions;
+    private FeatureGate featureGate;
+    private CountingCallback callback;
+
+    @Setup
+    public void setUp() {
+        manager = PermissionManager.create(new StubPermissionBackend(true, false));
+        callback = new CountingCallback();
+
+        // Each feature requires a few of a small pool of permissions, so the features overlap...
+        String[] permissions = Permissions.create(PERMISSION_COUNT);
+        featurePermissions = new PermissionSet[featureCount];
+        featureGate = manager.createFeatureGate();
+        for (int feature = 0; feature < featureCount; feature++) {
+            String[] required = new String[PERMISSIONS_PER_FEATURE];
+            for (int i = 0; i < PERMISSIONS_PER_FEATURE; i++) {
+                required[i] = permissions[(feature + i * 3) % PERMISSION_COUNT];
+            }
+            featurePermissions[feature] = PermissionSet.of(required);
+            featureGate.addFeature(featurePermissions[feature], callback, callback);
+        }
+    }
+
+    @Benchmark
+    public long evaluateFeatureGate() {
+        return featureGate.evaluate();
+    }
+
+    @Benchmark
+    public int checkFeaturesSeparately() {
+        for (PermissionSet permissions : featurePermissions) {
+            manager.with(permissions)
+                    .onPermissionGranted(callback)
+                    .onPermissionDenied(callback)
+                    .check();
+        }
+        return callback.count;
+    }
+
+    private static class CountingCallback implements OnPermissionGrantedCallback, OnPermissionDeniedCallback {
+        private int count;
+
+        @Override
+        public void onPermissionGranted() {
+            count++;
+        }
+
+        @Override
+        public void onPermissionDenied() {
+            count++;
+        }
+    }
+}
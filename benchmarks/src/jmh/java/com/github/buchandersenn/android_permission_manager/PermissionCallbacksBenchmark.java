@@ -0,0 +1,94 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import com.github.buchandersenn.android_permission_manager.callbacks.OnPermissionGrantedCallback;
+import com.github.buchandersenn.android_permission_manager.callbacks.PermissionCallbacks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building and dispatching nested {@link PermissionCallbacks#doAll(OnPermissionGrantedCallback...)}
+ * callbacks. The nested benchmarks use a copy of the original doAll(), which wrapped each level in
+ * a new callback, as the baseline for the flattened composites.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PermissionCallbacksBenchmark {
+    @Param({"1", "4", "16"})
+    public int depth;
+
+    private CountingCallback callback;
+    private OnPermissionGrantedCallback nestedCallback;
+    private OnPermissionGrantedCallback flattenedCallback;
+
+    @Setup
+    public void setUp() {
+        callback = new CountingCallback();
+        nestedCallback = buildNested();
+        flattenedCallback = buildFlattened();
+    }
+
+    @Benchmark
+    public OnPermissionGrantedCallback buildNested() {
+        OnPermissionGrantedCallback composite = callback;
+        for (int level = 0; level < depth; level++) {
+            composite = nestedDoAll(composite, callback);
+        }
+
+        return composite;
+    }
+
+    @Benchmark
+    public OnPermissionGrantedCallback buildFlattened() {
+        OnPermissionGrantedCallback composite = callback;
+        for (int level = 0; level < depth; level++) {
+            composite = PermissionCallbacks.doAll(composite, callback);
+        }
+
+        return composite;
+    }
+
+    @Benchmark
+    public int dispatchNested() {
+        nestedCallback.onPermissionGranted();
+        return callback.count;
+    }
+
+    @Benchmark
+    public int dispatchFlattened() {
+        flattenedCallback.onPermissionGranted();
+        return callback.count;
+    }
+
+    /**
+     * The original doAll(), before composites were flattened.
+     */
+    private static OnPermissionGrantedCallback nestedDoAll(final OnPermissionGrantedCallback... grantedCallbacks) {
+        return new OnPermissionGrantedCallback() {
+            @Override
+            public void onPermissionGranted() {
+                for (OnPermissionGrantedCallback callback : grantedCallbacks) {
+                    callback.onPermissionGranted();
+                }
+            }
+        };
+    }
+
+    private static class CountingCallback implements OnPermissionGrantedCallback {
+        private int count;
+
+        @Override
+        public void onPermissionGranted() {
+            count++;
+        }
+    }
+}
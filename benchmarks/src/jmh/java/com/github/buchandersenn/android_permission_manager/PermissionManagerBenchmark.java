@@ -0,0 +1,125 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import com.github.buchandersenn.android_permission_manager.callbacks.OnPermissionDeniedCallback;
+import com.github.buchandersenn.android_permission_manager.callbacks.OnPermissionGrantedCallback;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building and performing requests through the public API, and dispatching results through
+ * {@link PermissionManager#handlePermissionResult(int, String[], int[])}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PermissionManagerBenchmark {
+    @Param({"1", "4", "16"})
+    public int permissionCount;
+
+    private String[] permissions;
+    private int[] grantResults;
+
+    private StubPermissionBackend grantedBackend;
+    private PermissionManager grantedManager;
+
+    private StubPermissionBackend deniedBackend;
+    private PermissionManager deniedManager;
+
+    private CountingCallback callback;
+    private PreparedPermissionRequest preparedCheck;
+
+    @Setup
+    public void setUp() {
+        permissions = Permissions.create(permissionCount);
+        grantResults = Permissions.grantResults(permissionCount, true);
+
+        grantedBackend = new StubPermissionBackend(true, false);
+        grantedManager = PermissionManager.create(grantedBackend);
+
+        deniedBackend = new StubPermissionBackend(false, false);
+        deniedManager = PermissionManager.create(deniedBackend);
+
+        callback = new CountingCallback();
+        preparedCheck = grantedManager.with(permissions)
+                .onPermissionGranted(callback)
+                .onPermissionDenied(callback)
+                .prepare();
+    }
+
+    @Benchmark
+    public PermissionRequestBuilder buildRequest() {
+        return grantedManager.with(permissions)
+                .onPermissionGranted(callback)
+                .onPermissionDenied(callback);
+    }
+
+    @Benchmark
+    public int checkGranted() {
+        grantedManager.with(permissions)
+                .onPermissionGranted(callback)
+                .onPermissionDenied(callback)
+                .check();
+        return callback.count;
+    }
+
+    /**
+     * The same check as {@link #checkGranted()}, but prepared once. Run with the gc profiler,
+     * gc.alloc.rate.norm should be 0 bytes per operation.
+     */
+    @Benchmark
+    public int checkPreparedGranted() {
+        preparedCheck.check();
+        return callback.count;
+    }
+
+    @Benchmark
+    public int requestGranted() {
+        grantedManager.with(permissions)
+                .onPermissionGranted(callback)
+                .onPermissionDenied(callback)
+                .request();
+        return callback.count;
+    }
+
+    /**
+     * A request that isn't granted is sent to the backend, and its result is then handled -
+     * the full round trip of a permission dialog, minus the user.
+     */
+    @Benchmark
+    public boolean requestAndHandleResult() {
+        deniedManager.with(permissions)
+                .onPermissionGranted(callback)
+                .onPermissionDenied(callback)
+                .request();
+        return deniedManager.handlePermissionResult(deniedBackend.lastRequestCode, deniedBackend.lastPermissions, grantResults);
+    }
+
+    @Benchmark
+    public void handleUnknownPermissionResult(Blackhole blackhole) {
+        blackhole.consume(deniedManager.handlePermissionResult(42, permissions, grantResults));
+    }
+
+    private static class CountingCallback implements OnPermissionGrantedCallback, OnPermissionDeniedCallback {
+        private int count;
+
+        @Override
+        public void onPermissionGranted() {
+            count++;
+        }
+
+        @Override
+        public void onPermissionDenied() {
+            count++;
+        }
+    }
+}
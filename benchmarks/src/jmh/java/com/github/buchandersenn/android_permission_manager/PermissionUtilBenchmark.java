@@ -0,0 +1,64 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluation of 1-32 permissions by {@link PermissionUtil}, with and without
+ * the {@link PermissionStateCache}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PermissionUtilBenchmark {
+    @Param({"1", "2", "4", "8", "16", "32"})
+    public int permissionCount;
+
+    private String[] permissions;
+    private int[] grantedResults;
+    private int[] deniedResults;
+    private StubPermissionBackend backend;
+    private PermissionStateCache cache;
+
+    @Setup
+    public void setUp() {
+        permissions = Permissions.create(permissionCount);
+        grantedResults = Permissions.grantResults(permissionCount, true);
+        deniedResults = Permissions.grantResults(permissionCount, false);
+        backend = new StubPermissionBackend(true, false);
+        cache = new PermissionStateCache();
+    }
+
+    @Benchmark
+    public long checkPermissions() {
+        return PermissionUtil.checkPermissions(backend, permissions, null);
+    }
+
+    @Benchmark
+    public long checkPermissionsCached() {
+        return PermissionUtil.checkPermissions(backend, permissions, cache);
+    }
+
+    @Benchmark
+    public long shouldShowPermissionRationale() {
+        return PermissionUtil.shouldShowPermissionRationale(backend, permissions, -1L);
+    }
+
+    @Benchmark
+    public long verifyGrantedPermissionResults() {
+        return PermissionUtil.verifyPermissionResults(grantedResults);
+    }
+
+    @Benchmark
+    public long verifyDeniedPermissionResults() {
+        return PermissionUtil.verifyPermissionResults(deniedResults);
+    }
+}
@@ -0,0 +1,29 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import android.content.pm.PackageManager;
+
+/**
+ * Permission arrays and grant results shared by the benchmarks.
+ */
+final class Permissions {
+    private Permissions() {
+    }
+
+    static String[] create(int count) {
+        String[] permissions = new String[count];
+        for (int i = 0; i < count; i++) {
+            permissions[i] = "com.example.permission.PERMISSION_" + i;
+        }
+
+        return permissions;
+    }
+
+    static int[] grantResults(int count, boolean granted) {
+        int[] grantResults = new int[count];
+        for (int i = 0; i < count; i++) {
+            grantResults[i] = granted ? PackageManager.PERMISSION_GRANTED : PackageManager.PERMISSION_DENIED;
+        }
+
+        return grantResults;
+    }
+}
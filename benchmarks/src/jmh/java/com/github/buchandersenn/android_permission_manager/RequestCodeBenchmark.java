@@ -0,0 +1,61 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registering and unregistering a request - i.e. what PermissionManager.registerCallbacks()
+ * and calculateRequestCode() do - on the request codes of an activity's PermissionManager, with
+ * up to 1024 request codes already pending. From 256 pending requests the own codes are all in
+ * use, and the request is allocated on a page borrowed from the process-wide registry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RequestCodeBenchmark {
+    @Param({"0", "1", "128", "255", "256", "512", "1024"})
+    public int occupancy;
+
+    private PermissionRequestRegistry.Host host;
+    private PermissionRequest request;
+    private int pendingRequestCode;
+
+    @Setup
+    public void setUp() {
+        host = PermissionRequestRegistry.getInstance().register(true);
+        request = new PermissionRequest(PermissionManager.create(new StubPermissionBackend(false, false)), Permissions.create(1), -1, null, null, null);
+        for (int i = 0; i < occupancy; i++) {
+            int requestCode = host.allocate(request);
+            if (i == occupancy / 2) {
+                pendingRequestCode = requestCode;
+            }
+        }
+    }
+
+    @Benchmark
+    public PermissionRequest allocateAndRelease() {
+        int requestCode = host.allocate(request);
+        return host.release(requestCode);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public PermissionRequest allocateAndReleaseContended() {
+        int requestCode = host.allocate(request);
+        return requestCode == -1 ? null : host.release(requestCode);
+    }
+
+    @Benchmark
+    public PermissionRequest lookup() {
+        return host.get(pendingRequestCode);
+    }
+}
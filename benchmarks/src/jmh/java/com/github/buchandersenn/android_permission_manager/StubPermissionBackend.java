@@ -0,0 +1,62 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+
+/**
+ * A PermissionBackend answering from fixed arrays, so the benchmarks measure the library
+ * rather than a simulated permission system. Requests are recorded, not answered; the
+ * benchmarks deliver the results themselves.
+ */
+class StubPermissionBackend implements PermissionBackend {
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    private volatile boolean granted;
+    private volatile boolean showRationale;
+
+    int lastRequestCode = -1;
+    String[] lastPermissions;
+
+    StubPermissionBackend(boolean granted, boolean showRationale) {
+        this.granted = granted;
+        this.showRationale = showRationale;
+    }
+
+    void setGranted(boolean granted) {
+        this.granted = granted;
+    }
+
+    @Override
+    public Context getContext() {
+        return null;
+    }
+
+    @Override
+    public boolean checkPermission(@NonNull String permission) {
+        return granted;
+    }
+
+    @Override
+    public boolean shouldShowPermissionRationale(@NonNull String permission) {
+        return showRationale;
+    }
+
+    @Override
+    public void requestPermissions(int requestCode, @NonNull String[] permissions) {
+        lastRequestCode = requestCode;
+        lastPermissions = permissions;
+    }
+
+    @NonNull
+    @Override
+    public Executor getCallbackExecutor() {
+        return DIRECT_EXECUTOR;
+    }
+}
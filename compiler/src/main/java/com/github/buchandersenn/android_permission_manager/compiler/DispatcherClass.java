@@ -0,0 +1,202 @@
+package com.github.buchandersenn.android_permission_manager.compiler;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+
+/**
+ * The dispatcher generated for a host class, i.e. a class with @NeedsPermission methods.
+ * <p>
+ * Each @NeedsPermission method gets a constant request code, counting down from 255 so that
+ * the codes don't collide with the codes allocated by the PermissionManager, which counts up
+ * from 0. Because the codes are constants the results are routed with a switch, and no
+ * callbacks need to be registered - or allocated - when the permissions are requested.
+ */
+class DispatcherClass {
+    static final int MAX_REQUEST_CODE = 255;
+    static final int MAX_METHODS = 64;
+
+    private static final String PERMISSION_MANAGER = "com.github.buchandersenn.android_permission_manager.PermissionManager";
+    private static final String PERMISSION_SET = "com.github.buchandersenn.android_permission_manager.PermissionSet";
+    private static final String PERMISSION_GRANTED = "android.content.pm.PackageManager.PERMISSION_GRANTED";
+
+    private final TypeElement host;
+    private final List<PermissionMethod> methods = new ArrayList<>();
+    private final Set<String> constantSuffixes = new HashSet<>();
+
+    DispatcherClass(TypeElement host) {
+        this.host = host;
+    }
+
+    TypeElement getHost() {
+        return host;
+    }
+
+    List<PermissionMethod> getMethods() {
+        return methods;
+    }
+
+    int getNextRequestCode() {
+        return MAX_REQUEST_CODE - methods.size();
+    }
+
+    /**
+     * Add the given method, giving it constants that don't collide with the constants of the
+     * methods added before it - showCamera and show_camera both become SHOW_CAMERA, so the
+     * second one gets SHOW_CAMERA_2.
+     */
+    void addMethod(PermissionMethod method) {
+        String constantSuffix = method.getConstantName();
+        for (int i = 2; !constantSuffixes.add(constantSuffix); i++) {
+            constantSuffix = method.getConstantName() + "_" + i;
+        }
+
+        method.setConstantSuffix(constantSuffix);
+        methods.add(method);
+    }
+
+    String getPackageName() {
+        Element element = host;
+        while (element.getKind() != ElementKind.PACKAGE) {
+            element = element.getEnclosingElement();
+        }
+
+        return ((PackageElement) element).getQualifiedName().toString();
+    }
+
+    /**
+     * Get the simple name of the dispatcher, e.g. MainActivityPermissionDispatcher, or
+     * Outer_InnerPermissionDispatcher for a nested host class.
+     */
+    String getSimpleName() {
+        String name = host.getSimpleName().toString();
+        for (Element element = host.getEnclosingElement(); element.getKind() != ElementKind.PACKAGE; element = element.getEnclosingElement()) {
+            name = element.getSimpleName() + "_" + name;
+        }
+
+        return name + "PermissionDispatcher";
+    }
+
+    String getQualifiedName() {
+        String packageName = getPackageName();
+        return packageName.isEmpty() ? getSimpleName() : packageName + "." + getSimpleName();
+    }
+
+    /**
+     * Generate the source of the dispatcher.
+     */
+    String generate() {
+        String hostName = host.getQualifiedName().toString();
+        StringBuilder out = new StringBuilder();
+
+        out.append("// Generated by the android-permission-manager compiler. Do not edit.\n");
+        if (!getPackageName().isEmpty()) {
+            out.append("package ").append(getPackageName()).append(";\n\n");
+        }
+
+        out.append("public final class ").append(getSimpleName()).append(" {\n");
+        for (PermissionMethod method : methods) {
+            out.append("    private static final int ").append(method.getRequestCodeConstant()).append(" = ").append(method.getRequestCode()).append(";\n");
+            out.append("    private static final ").append(PERMISSION_SET).append(' ').append(method.getPermissionsConstant()).append(" = ").append(PERMISSION_SET).append(".of(");
+            for (int i = 0; i < method.getPermissions().size(); i++) {
+                out.append(i == 0 ? "" : ", ").append(quote(method.getPermissions().get(i)));
+            }
+            out.append(");\n");
+        }
+
+        out.append("\n");
+        out.append("    private ").append(getSimpleName()).append("() {\n");
+        out.append("    }\n");
+
+        for (PermissionMethod method : methods) {
+            String requestCode = method.getRequestCodeConstant();
+            String permissions = method.getPermissionsConstant();
+
+            out.append("\n");
+            out.append("    public static void ").append(method.getName()).append("WithPermissionCheck(").append(hostName).append(" target, ").append(PERMISSION_MANAGER).append(" permissionManager) {\n");
+            out.append("        if (permissionManager.isGranted(").append(permissions).append(")) {\n");
+            out.append("            target.").append(method.getName()).append("();\n");
+            if (method.getShowRationaleMethod() != null) {
+                out.append("        } else if (permissionManager.shouldShowRationale(").append(permissions).append(")) {\n");
+                out.append("            target.").append(method.getShowRationaleMethod().getSimpleName()).append("();\n");
+            }
+            out.append("        } else {\n");
+            out.append("            permissionManager.requestPermissions(").append(requestCode).append(", ").append(permissions).append(");\n");
+            out.append("        }\n");
+            out.append("    }\n");
+
+            if (method.getShowRationaleMethod() != null) {
+                out.append("\n");
+                out.append("    public static void ").append(method.getProceedMethodName()).append("(").append(PERMISSION_MANAGER).append(" permissionManager) {\n");
+                out.append("        permissionManager.requestPermissions(").append(requestCode).append(", ").append(permissions).append(");\n");
+                out.append("    }\n");
+            }
+        }
+
+        out.append("\n");
+        out.append("    public static boolean onRequestPermissionsResult(").append(hostName).append(" target, ").append(PERMISSION_MANAGER).append(" permissionManager, int requestCode, String[] permissions, int[] grantResults) {\n");
+        out.append("        if (permissionManager.handlePermissionResult(requestCode, permissions, grantResults)) {\n");
+        out.append("            return true;\n");
+        out.append("        }\n");
+        out.append("\n");
+        out.append("        switch (requestCode) {\n");
+        for (PermissionMethod method : methods) {
+            ExecutableElement deniedMethod = method.getDeniedMethod();
+            out.append("            case ").append(method.getRequestCodeConstant()).append(":\n");
+            out.append("                if (isGranted(grantResults)) {\n");
+            out.append("                    target.").append(method.getName()).append("();\n");
+            if (deniedMethod != null) {
+                out.append("                } else {\n");
+                out.append("                    target.").append(deniedMethod.getSimpleName()).append("();\n");
+            }
+            out.append("                }\n");
+            out.append("                return true;\n");
+        }
+        out.append("            default:\n");
+        out.append("                return false;\n");
+        out.append("        }\n");
+        out.append("    }\n");
+
+        // The grant results are empty if the request was cancelled...
+        out.append("\n");
+        out.append("    private static boolean isGranted(int[] grantResults) {\n");
+        out.append("        if (grantResults.length == 0) {\n");
+        out.append("            return false;\n");
+        out.append("        }\n");
+        out.append("\n");
+        out.append("        for (int grantResult : grantResults) {\n");
+        out.append("            if (grantResult != ").append(PERMISSION_GRANTED).append(") {\n");
+        out.append("                return false;\n");
+        out.append("            }\n");
+        out.append("        }\n");
+        out.append("\n");
+        out.append("        return true;\n");
+        out.append("    }\n");
+        out.append("}\n");
+
+        return out.toString();
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20 || c > 0x7e) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,261 @@
+package com.github.buchandersenn.android_permission_manager.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a &lt;Host&gt;PermissionDispatcher class for each class with @NeedsPermission methods.
+ * The generated code calls the PermissionManager directly and routes the results of its requests
+ * by request code, so no reflection is used and nothing is allocated when checking permissions
+ * or routing results. For a host like
+ * <pre>
+ * public class MainActivity extends Activity {
+ *     &#64;NeedsPermission(Manifest.permission.CAMERA)
+ *     void showCamera() { ... }
+ *
+ *     &#64;OnPermissionDenied(Manifest.permission.CAMERA)
+ *     void onCameraDenied() { ... }
+ * }
+ * </pre>
+ * the dispatcher has a showCameraWithPermissionCheck(MainActivity, PermissionManager) method and
+ * an onRequestPermissionsResult(MainActivity, PermissionManager, int, String[], int[]) method.
+ * If there is an @OnShowRationale method there is also a proceedShowCamera(PermissionManager)
+ * method, to be called once the user has accepted the rationale.
+ */
+@SupportedAnnotationTypes({
+        PermissionDispatcherProcessor.NEEDS_PERMISSION,
+        PermissionDispatcherProcessor.ON_PERMISSION_DENIED,
+        PermissionDispatcherProcessor.ON_SHOW_RATIONALE})
+public class PermissionDispatcherProcessor extends AbstractProcessor {
+    static final String NEEDS_PERMISSION = "com.github.buchandersenn.android_permission_manager.annotations.NeedsPermission";
+    static final String ON_PERMISSION_DENIED = "com.github.buchandersenn.android_permission_manager.annotations.OnPermissionDenied";
+    static final String ON_SHOW_RATIONALE = "com.github.buchandersenn.android_permission_manager.annotations.OnShowRationale";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement needsPermission = processingEnv.getElementUtils().getTypeElement(NEEDS_PERMISSION);
+        TypeElement onPermissionDenied = processingEnv.getElementUtils().getTypeElement(ON_PERMISSION_DENIED);
+        TypeElement onShowRationale = processingEnv.getElementUtils().getTypeElement(ON_SHOW_RATIONALE);
+        if (needsPermission == null || onPermissionDenied == null || onShowRationale == null) {
+            return false;
+        }
+
+        Map<TypeElement, DispatcherClass> dispatchers = new LinkedHashMap<>();
+        boolean valid = true;
+
+        for (Element element : roundEnv.getElementsAnnotatedWith(needsPermission)) {
+            List<String> permissions = getPermissions(element, NEEDS_PERMISSION);
+            if (!isValidMethod(element, "@NeedsPermission") || permissions == null) {
+                valid = false;
+                continue;
+            }
+
+            TypeElement host = (TypeElement) element.getEnclosingElement();
+            DispatcherClass dispatcher = dispatchers.get(host);
+            if (dispatcher == null) {
+                dispatcher = new DispatcherClass(host);
+                dispatchers.put(host, dispatcher);
+            }
+
+            if (dispatcher.getMethods().size() == DispatcherClass.MAX_METHODS) {
+                error(element, "A class can't have more than " + DispatcherClass.MAX_METHODS + " @NeedsPermission methods");
+                valid = false;
+                continue;
+            }
+
+            dispatcher.addMethod(new PermissionMethod((ExecutableElement) element, permissions, dispatcher.getNextRequestCode()));
+        }
+
+        for (Element element : roundEnv.getElementsAnnotatedWith(onPermissionDenied)) {
+            valid &= bindMethod(element, ON_PERMISSION_DENIED, "@OnPermissionDenied", dispatchers);
+        }
+        for (Element element : roundEnv.getElementsAnnotatedWith(onShowRationale)) {
+            valid &= bindMethod(element, ON_SHOW_RATIONALE, "@OnShowRationale", dispatchers);
+        }
+
+        for (DispatcherClass dispatcher : dispatchers.values()) {
+            valid &= checkProceedMethodNames(dispatcher);
+        }
+
+        // Don't generate anything if there are errors, as the errors are easier to read
+        // without errors from the generated code on top of them...
+        if (!valid) {
+            return true;
+        }
+
+        for (DispatcherClass dispatcher : dispatchers.values()) {
+            try {
+                JavaFileObject sourceFile = processingEnv.getFiler().createSourceFile(dispatcher.getQualifiedName(), dispatcher.getHost());
+                try (Writer writer = sourceFile.openWriter()) {
+                    writer.write(dispatcher.generate());
+                }
+            } catch (IOException e) {
+                error(dispatcher.getHost(), "Unable to write " + dispatcher.getQualifiedName() + ": " + e.getMessage());
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Bind a method annotated with @OnPermissionDenied or @OnShowRationale to the
+     * @NeedsPermission methods of its class with the same permissions.
+     * @return false if the method isn't valid
+     */
+    private boolean bindMethod(Element element, String annotation, String annotationName, Map<TypeElement, DispatcherClass> dispatchers) {
+        List<String> permissions = getPermissions(element, annotation);
+        if (!isValidMethod(element, annotationName) || permissions == null) {
+            return false;
+        }
+
+        DispatcherClass dispatcher = dispatchers.get(element.getEnclosingElement());
+        List<PermissionMethod> methods = new ArrayList<>();
+        if (dispatcher != null) {
+            for (PermissionMethod method : dispatcher.getMethods()) {
+                if (method.getPermissions().equals(permissions)) {
+                    methods.add(method);
+                }
+            }
+        }
+
+        if (methods.isEmpty()) {
+            error(element, "There is no @NeedsPermission method for the permissions " + permissions);
+            return false;
+        }
+
+        ExecutableElement executableElement = (ExecutableElement) element;
+        for (PermissionMethod method : methods) {
+            boolean denied = annotation.equals(ON_PERMISSION_DENIED);
+            if ((denied ? method.getDeniedMethod() : method.getShowRationaleMethod()) != null) {
+                error(element, "There is more than one " + annotationName + " method for the permissions " + permissions);
+                return false;
+            }
+
+            if (denied) {
+                method.setDeniedMethod(executableElement);
+            } else {
+                method.setShowRationaleMethod(executableElement);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Check that no two methods with a rationale get the same proceed method, e.g. showCamera
+     * and ShowCamera.
+     * @return false if the proceed methods collide
+     */
+    private boolean checkProceedMethodNames(DispatcherClass dispatcher) {
+        Set<String> proceedMethodNames = new HashSet<>();
+        boolean valid = true;
+        for (PermissionMethod method : dispatcher.getMethods()) {
+            if (method.getShowRationaleMethod() != null && !proceedMethodNames.add(method.getProceedMethodName())) {
+                error(method.getElement(), "The @NeedsPermission method " + method.getName() + " would get the same " + method.getProceedMethodName() + " method as another method, rename one of them");
+                valid = false;
+            }
+        }
+
+        return valid;
+    }
+
+    private boolean isValidMethod(Element element, String annotationName) {
+        if (element.getKind() != ElementKind.METHOD) {
+            error(element, annotationName + " can only be used on methods");
+            return false;
+        }
+
+        ExecutableElement method = (ExecutableElement) element;
+        if (method.getModifiers().contains(Modifier.PRIVATE) || method.getModifiers().contains(Modifier.STATIC)) {
+            error(element, annotationName + " methods must not be private or static");
+            return false;
+        }
+        if (method.getReturnType().getKind() != TypeKind.VOID || !method.getParameters().isEmpty()) {
+            error(element, annotationName + " methods must return void and take no arguments");
+            return false;
+        }
+
+        // The dispatcher is generated in the package of the host, so the host must be visible there...
+        for (Element host = element.getEnclosingElement(); host.getKind() != ElementKind.PACKAGE; host = host.getEnclosingElement()) {
+            if (host.getModifiers().contains(Modifier.PRIVATE)) {
+                error(element, annotationName + " methods can't be declared in a private class");
+                return false;
+            }
+            if (host.getEnclosingElement().getKind() != ElementKind.PACKAGE && !host.getModifiers().contains(Modifier.STATIC)) {
+                error(element, annotationName + " methods can't be declared in an inner class");
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the sorted, distinct permissions of the given annotation on the element, or null if
+     * there are none.
+     */
+    private List<String> getPermissions(Element element, String annotation) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (!((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotation)) {
+                continue;
+            }
+
+            Set<String> permissions = new TreeSet<>();
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : mirror.getElementValues().entrySet()) {
+                if (!entry.getKey().getSimpleName().contentEquals("value")) {
+                    continue;
+                }
+
+                Object value = entry.getValue().getValue();
+                if (value instanceof List) {
+                    for (Object item : (List<?>) value) {
+                        permissions.add(String.valueOf(((AnnotationValue) item).getValue()));
+                    }
+                } else {
+                    permissions.add(String.valueOf(value));
+                }
+            }
+
+            if (permissions.isEmpty()) {
+                error(element, "At least one permission must be given");
+                return null;
+            }
+
+            return Collections.unmodifiableList(new ArrayList<>(permissions));
+        }
+
+        return null;
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
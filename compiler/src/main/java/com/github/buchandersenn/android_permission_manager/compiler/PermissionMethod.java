@@ -0,0 +1,102 @@
+package com.github.buchandersenn.android_permission_manager.compiler;
+
+import java.util.List;
+import java.util.Locale;
+
+import javax.lang.model.element.ExecutableElement;
+
+/**
+ * A method annotated with @NeedsPermission, along with the methods handling the denied and
+ * rationale cases of its permissions, if there are any.
+ */
+class PermissionMethod {
+    private final ExecutableElement element;
+    private final List<String> permissions;
+    private final int requestCode;
+
+    private String constantSuffix;
+    private ExecutableElement deniedMethod;
+    private ExecutableElement showRationaleMethod;
+
+    PermissionMethod(ExecutableElement element, List<String> permissions, int requestCode) {
+        this.element = element;
+        this.permissions = permissions;
+        this.requestCode = requestCode;
+    }
+
+    String getName() {
+        return element.getSimpleName().toString();
+    }
+
+    /**
+     * Get the sorted, distinct permissions of the method.
+     */
+    List<String> getPermissions() {
+        return permissions;
+    }
+
+    int getRequestCode() {
+        return requestCode;
+    }
+
+    ExecutableElement getElement() {
+        return element;
+    }
+
+    /**
+     * Get the name of the proceed method generated if the method has a rationale, e.g.
+     * proceedShowCamera for showCamera.
+     */
+    String getProceedMethodName() {
+        return "proceed" + Character.toUpperCase(getName().charAt(0)) + getName().substring(1);
+    }
+
+    ExecutableElement getDeniedMethod() {
+        return deniedMethod;
+    }
+
+    void setDeniedMethod(ExecutableElement deniedMethod) {
+        this.deniedMethod = deniedMethod;
+    }
+
+    ExecutableElement getShowRationaleMethod() {
+        return showRationaleMethod;
+    }
+
+    void setShowRationaleMethod(ExecutableElement showRationaleMethod) {
+        this.showRationaleMethod = showRationaleMethod;
+    }
+
+    String getRequestCodeConstant() {
+        return "REQUEST_" + constantSuffix;
+    }
+
+    String getPermissionsConstant() {
+        return "PERMISSIONS_" + constantSuffix;
+    }
+
+    /**
+     * Set the suffix of the constants of the method, which must be unique within the dispatcher.
+     */
+    void setConstantSuffix(String constantSuffix) {
+        this.constantSuffix = constantSuffix;
+    }
+
+    /**
+     * Get the name of the method as a constant, e.g. SHOW_CAMERA for showCamera. Different
+     * methods can have the same constant name, e.g. showCamera and show_camera.
+     */
+    String getConstantName() {
+        String name = getName();
+        StringBuilder constant = new StringBuilder();
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isUpperCase(c) && i > 0 && !Character.isUpperCase(name.charAt(i - 1))) {
+                constant.append('_');
+            }
+            constant.append(c);
+        }
+
+        return constant.toString().toUpperCase(Locale.US);
+    }
+}
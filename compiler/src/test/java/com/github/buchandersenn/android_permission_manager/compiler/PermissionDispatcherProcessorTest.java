@@ -0,0 +1,237 @@
+package com.github.buchandersenn.android_permission_manager.compiler;
+
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.JavaFileObject;
+
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+
+public class PermissionDispatcherProcessorTest {
+    // The processor refers to the annotations and library classes by name, so minimal versions of
+    // them are enough to compile the hosts and the generated dispatchers...
+    private static final JavaFileObject NEEDS_PERMISSION = annotation("NeedsPermission");
+    private static final JavaFileObject ON_PERMISSION_DENIED = annotation("OnPermissionDenied");
+    private static final JavaFileObject ON_SHOW_RATIONALE = annotation("OnShowRationale");
+
+    private static final JavaFileObject PERMISSION_SET = JavaFileObjects.forSourceLines(
+            "com.github.buchandersenn.android_permission_manager.PermissionSet",
+            "package com.github.buchandersenn.android_permission_manager;",
+            "public final class PermissionSet {",
+            "    public static PermissionSet of(String... permissions) { return new PermissionSet(); }",
+            "}");
+    private static final JavaFileObject PERMISSION_MANAGER = JavaFileObjects.forSourceLines(
+            "com.github.buchandersenn.android_permission_manager.PermissionManager",
+            "package com.github.buchandersenn.android_permission_manager;",
+            "public class PermissionManager {",
+            "    public boolean isGranted(PermissionSet permissions) { return false; }",
+            "    public boolean shouldShowRationale(PermissionSet permissions) { return false; }",
+            "    public void requestPermissions(int requestCode, PermissionSet permissions) { }",
+            "    public boolean handlePermissionResult(int requestCode, String[] permissions, int[] grantResults) { return false; }",
+            "}");
+    private static final JavaFileObject PACKAGE_MANAGER = JavaFileObjects.forSourceLines(
+            "android.content.pm.PackageManager",
+            "package android.content.pm;",
+            "public abstract class PackageManager {",
+            "    public static final int PERMISSION_GRANTED = 0;",
+            "}");
+
+    @Test
+    public void generatesDispatcher() {
+        Compilation compilation = compile(JavaFileObjects.forSourceLines("test.CameraActivity",
+                "package test;",
+                "import com.github.buchandersenn.android_permission_manager.annotations.*;",
+                "public class CameraActivity {",
+                "    @NeedsPermission({\"android.permission.RECORD_AUDIO\", \"android.permission.CAMERA\"})",
+                "    void showCamera() { }",
+                "    @OnShowRationale({\"android.permission.CAMERA\", \"android.permission.RECORD_AUDIO\"})",
+                "    void showRationaleForCamera() { }",
+                "    @OnPermissionDenied({\"android.permission.CAMERA\", \"android.permission.RECORD_AUDIO\"})",
+                "    void onCameraDenied() { }",
+                "    @NeedsPermission(\"android.permission.READ_CONTACTS\")",
+                "    void showContacts() { }",
+                "}"));
+
+        assertThat(compilation).succeededWithoutWarnings();
+        assertThat(compilation).generatedSourceFile("test.CameraActivityPermissionDispatcher").contentsAsUtf8String().containsMatch(
+                "private static final int REQUEST_SHOW_CAMERA = 255;\\s+"
+                        + "private static final com.github.buchandersenn.android_permission_manager.PermissionSet PERMISSIONS_SHOW_CAMERA = "
+                        + "com.github.buchandersenn.android_permission_manager.PermissionSet.of\\(\"android.permission.CAMERA\", \"android.permission.RECORD_AUDIO\"\\);\\s+"
+                        + "private static final int REQUEST_SHOW_CONTACTS = 254;");
+        assertThat(compilation).generatedSourceFile("test.CameraActivityPermissionDispatcher").contentsAsUtf8String().contains(
+                "public static void showCameraWithPermissionCheck(test.CameraActivity target, "
+                        + "com.github.buchandersenn.android_permission_manager.PermissionManager permissionManager) {\n"
+                        + "        if (permissionManager.isGranted(PERMISSIONS_SHOW_CAMERA)) {\n"
+                        + "            target.showCamera();\n"
+                        + "        } else if (permissionManager.shouldShowRationale(PERMISSIONS_SHOW_CAMERA)) {\n"
+                        + "            target.showRationaleForCamera();\n"
+                        + "        } else {\n"
+                        + "            permissionManager.requestPermissions(REQUEST_SHOW_CAMERA, PERMISSIONS_SHOW_CAMERA);\n"
+                        + "        }\n"
+                        + "    }");
+        assertThat(compilation).generatedSourceFile("test.CameraActivityPermissionDispatcher").contentsAsUtf8String().contains(
+                "public static void proceedShowCamera(");
+        assertThat(compilation).generatedSourceFile("test.CameraActivityPermissionDispatcher").contentsAsUtf8String().contains(
+                "            case REQUEST_SHOW_CAMERA:\n"
+                        + "                if (isGranted(grantResults)) {\n"
+                        + "                    target.showCamera();\n"
+                        + "                } else {\n"
+                        + "                    target.onCameraDenied();\n"
+                        + "                }\n"
+                        + "                return true;\n");
+    }
+
+    @Test
+    public void namesDispatcherOfNestedClassAfterOuterClasses() {
+        Compilation compilation = compile(JavaFileObjects.forSourceLines("test.Outer",
+                "package test;",
+                "import com.github.buchandersenn.android_permission_manager.annotations.*;",
+                "public class Outer {",
+                "    static class Inner {",
+                "        @NeedsPermission(\"android.permission.CAMERA\")",
+                "        void showCamera() { }",
+                "    }",
+                "}"));
+
+        assertThat(compilation).succeededWithoutWarnings();
+        assertThat(compilation).generatedSourceFile("test.Outer_InnerPermissionDispatcher").contentsAsUtf8String().contains(
+                "public static void showCameraWithPermissionCheck(test.Outer.Inner target, ");
+    }
+
+    @Test
+    public void disambiguatesMethodsWithTheSameConstantName() {
+        Compilation compilation = compile(JavaFileObjects.forSourceLines("test.CameraActivity",
+                "package test;",
+                "import com.github.buchandersenn.android_permission_manager.annotations.*;",
+                "public class CameraActivity {",
+                "    @NeedsPermission(\"android.permission.CAMERA\")",
+                "    void showCamera() { }",
+                "    @NeedsPermission(\"android.permission.RECORD_AUDIO\")",
+                "    void show_camera() { }",
+                "    @NeedsPermission(\"android.permission.READ_CONTACTS\")",
+                "    void ShowCamera() { }",
+                "}"));
+
+        assertThat(compilation).succeededWithoutWarnings();
+        assertThat(compilation).generatedSourceFile("test.CameraActivityPermissionDispatcher").contentsAsUtf8String().contains(
+                "private static final int REQUEST_SHOW_CAMERA = 255;");
+        assertThat(compilation).generatedSourceFile("test.CameraActivityPermissionDispatcher").contentsAsUtf8String().contains(
+                "private static final int REQUEST_SHOW_CAMERA_2 = 254;");
+        assertThat(compilation).generatedSourceFile("test.CameraActivityPermissionDispatcher").contentsAsUtf8String().contains(
+                "private static final int REQUEST_SHOW_CAMERA_3 = 253;");
+    }
+
+    @Test
+    public void reportsMethodsWithTheSameProceedMethod() {
+        JavaFileObject source = JavaFileObjects.forSourceLines("test.CameraActivity",
+                "package test;",
+                "import com.github.buchandersenn.android_permission_manager.annotations.*;",
+                "public class CameraActivity {",
+                "    @NeedsPermission(\"android.permission.CAMERA\")",
+                "    void showCamera() { }",
+                "    @OnShowRationale(\"android.permission.CAMERA\")",
+                "    void showRationaleForCamera() { }",
+                "    @NeedsPermission(\"android.permission.RECORD_AUDIO\")",
+                "    void ShowCamera() { }",
+                "    @OnShowRationale(\"android.permission.RECORD_AUDIO\")",
+                "    void showRationaleForAudio() { }",
+                "}");
+        Compilation compilation = compile(source);
+
+        assertThat(compilation).failed();
+        assertThat(compilation).hadErrorContaining("would get the same proceedShowCamera method").inFile(source).onLine(9);
+    }
+
+    @Test
+    public void reportsInvalidMethods() {
+        JavaFileObject source = JavaFileObjects.forSourceLines("test.CameraActivity",
+                "package test;",
+                "import com.github.buchandersenn.android_permission_manager.annotations.*;",
+                "public class CameraActivity {",
+                "    @NeedsPermission(\"android.permission.CAMERA\")",
+                "    private void showCamera() { }",
+                "    @NeedsPermission(\"android.permission.RECORD_AUDIO\")",
+                "    static void recordAudio() { }",
+                "    @NeedsPermission(\"android.permission.READ_CONTACTS\")",
+                "    boolean showContacts() { return true; }",
+                "    @NeedsPermission(\"android.permission.READ_CALENDAR\")",
+                "    void showCalendar(int day) { }",
+                "}");
+        Compilation compilation = compile(source);
+
+        assertThat(compilation).failed();
+        assertThat(compilation).hadErrorContaining("@NeedsPermission methods must not be private or static").inFile(source).onLine(5);
+        assertThat(compilation).hadErrorContaining("@NeedsPermission methods must not be private or static").inFile(source).onLine(7);
+        assertThat(compilation).hadErrorContaining("@NeedsPermission methods must return void and take no arguments").inFile(source).onLine(9);
+        assertThat(compilation).hadErrorContaining("@NeedsPermission methods must return void and take no arguments").inFile(source).onLine(11);
+    }
+
+    @Test
+    public void reportsMethodsInInnerAndPrivateClasses() {
+        JavaFileObject source = JavaFileObjects.forSourceLines("test.Outer",
+                "package test;",
+                "import com.github.buchandersenn.android_permission_manager.annotations.*;",
+                "public class Outer {",
+                "    class Inner {",
+                "        @NeedsPermission(\"android.permission.CAMERA\")",
+                "        void showCamera() { }",
+                "    }",
+                "    private static class Hidden {",
+                "        @NeedsPermission(\"android.permission.CAMERA\")",
+                "        void showCamera() { }",
+                "    }",
+                "}");
+        Compilation compilation = compile(source);
+
+        assertThat(compilation).failed();
+        assertThat(compilation).hadErrorContaining("@NeedsPermission methods can't be declared in an inner class").inFile(source).onLine(6);
+        assertThat(compilation).hadErrorContaining("@NeedsPermission methods can't be declared in a private class").inFile(source).onLine(10);
+    }
+
+    @Test
+    public void reportsUnboundAndDuplicateMethods() {
+        JavaFileObject source = JavaFileObjects.forSourceLines("test.CameraActivity",
+                "package test;",
+                "import com.github.buchandersenn.android_permission_manager.annotations.*;",
+                "public class CameraActivity {",
+                "    @NeedsPermission(\"android.permission.CAMERA\")",
+                "    void showCamera() { }",
+                "    @OnPermissionDenied(\"android.permission.CAMERA\")",
+                "    void onCameraDenied() { }",
+                "    @OnPermissionDenied(\"android.permission.CAMERA\")",
+                "    void onCameraDeniedAgain() { }",
+                "    @OnShowRationale(\"android.permission.RECORD_AUDIO\")",
+                "    void showRationaleForAudio() { }",
+                "}");
+        Compilation compilation = compile(source);
+
+        assertThat(compilation).failed();
+        assertThat(compilation).hadErrorContaining("There is more than one @OnPermissionDenied method for the permissions [android.permission.CAMERA]").inFile(source).onLine(9);
+        assertThat(compilation).hadErrorContaining("There is no @NeedsPermission method for the permissions [android.permission.RECORD_AUDIO]").inFile(source).onLine(11);
+    }
+
+    private static Compilation compile(JavaFileObject source) {
+        List<JavaFileObject> sources = new ArrayList<>(Arrays.asList(
+                NEEDS_PERMISSION, ON_PERMISSION_DENIED, ON_SHOW_RATIONALE, PERMISSION_SET, PERMISSION_MANAGER, PACKAGE_MANAGER));
+        sources.add(source);
+        return javac().withProcessors(new PermissionDispatcherProcessor()).compile(sources);
+    }
+
+    private static JavaFileObject annotation(String name) {
+        return JavaFileObjects.forSourceLines("com.github.buchandersenn.android_permission_manager.annotations." + name,
+                "package com.github.buchandersenn.android_permission_manager.annotations;",
+                "import java.lang.annotation.*;",
+                "@Target(ElementType.METHOD)",
+                "@Retention(RetentionPolicy.CLASS)",
+                "public @interface " + name + " {",
+                "    String[] value();",
+                "}");
+    }
+}
@@ -0,0 +1,100 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.support.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The permissions declared in the manifest of the app, read once from the PackageManager.
+ * <p>
+ * A permission that isn't declared in the manifest can never be granted, so there is no
+ * need to check or request it. The index is built the first time it is needed and never
+ * changes afterwards, as the manifest can't change while the app is running.
+ */
+public class DeclaredPermissionIndex {
+    private static volatile DeclaredPermissionIndex instance;
+
+    private final Set<String> declaredPermissions;
+    private final boolean debuggable;
+
+    private DeclaredPermissionIndex(Set<String> declaredPermissions, boolean debuggable) {
+        this.declaredPermissions = declaredPermissions;
+        this.debuggable = debuggable;
+    }
+
+    /**
+     * Get the index of the declared permissions, building it if necessary.
+     */
+    @NonNull
+    public static DeclaredPermissionIndex getInstance(@NonNull Context context) {
+        DeclaredPermissionIndex index = instance;
+        if (index == null) {
+            synchronized (DeclaredPermissionIndex.class) {
+                index = instance;
+                if (index == null) {
+                    index = build(context);
+                    instance = index;
+                }
+            }
+        }
+
+        return index;
+    }
+
+    private static DeclaredPermissionIndex build(Context context) {
+        ApplicationInfo applicationInfo = context.getApplicationInfo();
+        boolean debuggable = applicationInfo != null && (applicationInfo.flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+
+        try {
+            PackageInfo packageInfo = context.getPackageManager().getPackageInfo(context.getPackageName(), PackageManager.GET_PERMISSIONS);
+            Set<String> declaredPermissions = new HashSet<>();
+            if (packageInfo.requestedPermissions != null) {
+                Collections.addAll(declaredPermissions, packageInfo.requestedPermissions);
+            }
+            return new DeclaredPermissionIndex(Collections.unmodifiableSet(declaredPermissions), debuggable);
+        } catch (PackageManager.NameNotFoundException e) {
+            // Without the package info, every permission is assumed to be declared...
+            return new DeclaredPermissionIndex(null, debuggable);
+        }
+    }
+
+    /**
+     * Check if the given permission is declared in the manifest of the app.
+     */
+    public boolean isDeclared(@NonNull String permission) {
+        return declaredPermissions == null || declaredPermissions.contains(permission);
+    }
+
+    /**
+     * Get the bitset of the given permissions that aren't declared in the manifest of the app,
+     * where bit i corresponds to permissions[i].
+     */
+    public long getUndeclaredMask(@NonNull String[] permissions) {
+        if (declaredPermissions == null) {
+            return 0;
+        }
+
+        long undeclaredMask = 0;
+        for (int i = 0; i < permissions.length; i++) {
+            if (!declaredPermissions.contains(permissions[i])) {
+                undeclaredMask |= 1L << i;
+            }
+        }
+
+        return undeclaredMask;
+    }
+
+    /**
+     * Check if the app is a debug build, in which case requesting an undeclared permission is
+     * treated as a programming error rather than a denied permission.
+     */
+    public boolean isDebuggable() {
+        return debuggable;
+    }
+}
@@ -0,0 +1,262 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.github.buchandersenn.android_permission_manager.callbacks.OnPermissionDeniedCallback;
+import com.github.buchandersenn.android_permission_manager.callbacks.OnPermissionGrantedCallback;
+import com.github.buchandersenn.android_permission_manager.callbacks.PermissionUiBatcher;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Evaluates the permissions of many features in one pass. Each feature is declared once, as the
+ * set of permissions it requires, and is enabled if all of them are granted.
+ * <p>
+ * Features often require the same permissions, so instead of checking each feature separately
+ * the gate keeps the distinct permissions of all its features, and {@link #evaluate()} checks
+ * each of them exactly once before deciding which features are enabled. The permissions are
+ * checked like those of a request, through the permission state cache of the PermissionManager,
+ * and permissions that aren't declared in the manifest are denied without calling the system. The enabled features are
+ * returned as a bitset, where bit i corresponds to the feature declared i'th, and the granted or
+ * denied callback of each feature is fired.
+ * <pre>
+ * FeatureGate featureGate = permissionManager.createFeatureGate();
+ * int contactsFeature = featureGate.addFeature(PermissionSet.of(Manifest.permission.READ_CONTACTS), ...);
+ * int callLogFeature = featureGate.addFeature(PermissionSet.of(Manifest.permission.READ_CONTACTS, Manifest.permission.READ_CALL_LOG), ...);
+ *
+ * protected void onResume() {
+ *     super.onResume();
+ *     long enabledFeatures = featureGate.evaluate();
+ *     callLogButton.setEnabled(FeatureGate.isEnabled(enabledFeatures, callLogFeature));
+ * }
+ * </pre>
+ */
+public class FeatureGate {
+    public static final int MAX_FEATURES = Long.SIZE;
+
+    private final @NonNull PermissionManager manager;
+
+    // The features and permissions are copied on write, so that evaluate() can check the
+    // permissions and fire the callbacks outside the lock. The permissions are also kept in
+    // words of up to 64 permissions, the most a single check can evaluate...
+    private final Object lock = new Object();
+    private final Map<String, Integer> permissionIndexes = new HashMap<>();
+    private Feature[] features = new Feature[0];
+    private String[] permissions = new String[0];
+    private String[][] permissionWords = new String[0][];
+
+    private long evaluationSequence;
+    private long publishedSequence;
+    private volatile long enabledFeatures;
+
+    FeatureGate(@NonNull PermissionManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Declare a feature requiring the given permissions.
+     *
+     * @return the index of the feature, i.e. its bit in the bitset returned by {@link #evaluate()}
+     * @throws IllegalStateException if the gate already has {@link #MAX_FEATURES} features
+     */
+    public int addFeature(@NonNull PermissionSet featurePermissions, @Nullable OnPermissionGrantedCallback grantedCallback, @Nullable OnPermissionDeniedCallback deniedCallback) {
+        if (featurePermissions.size() < 1) {
+            throw new IllegalArgumentException("A feature must require at least one permission");
+        }
+
+        synchronized (lock) {
+            if (features.length == MAX_FEATURES) {
+                throw new IllegalStateException("A FeatureGate can't have more than " + MAX_FEATURES + " features");
+            }
+
+            int permissionCount = permissions.length;
+            int[] indexes = new int[featurePermissions.size()];
+            for (int i = 0; i < indexes.length; i++) {
+                String permission = featurePermissions.get(i);
+                Integer index = permissionIndexes.get(permission);
+                if (index == null) {
+                    index = permissions.length;
+                    permissionIndexes.put(permission, index);
+                    permissions = Arrays.copyOf(permissions, index + 1);
+                    permissions[index] = permission;
+                }
+                indexes[i] = index;
+            }
+
+            if (permissions.length != permissionCount) {
+                int wordCount = (permissions.length + Long.SIZE - 1) / Long.SIZE;
+                String[][] words = new String[wordCount][];
+                for (int word = 0; word < wordCount; word++) {
+                    words[word] = Arrays.copyOfRange(permissions, word * Long.SIZE, Math.min(permissions.length, (word + 1) * Long.SIZE));
+                }
+                permissionWords = words;
+            }
+
+            int feature = features.length;
+            features = Arrays.copyOf(features, feature + 1);
+            features[feature] = new Feature(featurePermissions, indexes, grantedCallback, deniedCallback);
+            return feature;
+        }
+    }
+
+    /**
+     * Declare a feature requiring the given permissions, without callbacks.
+     */
+    public int addFeature(@NonNull PermissionSet featurePermissions) {
+        return addFeature(featurePermissions, null, null);
+    }
+
+    public int getFeatureCount() {
+        synchronized (lock) {
+            return features.length;
+        }
+    }
+
+    /**
+     * Get the permissions required by the given feature.
+     */
+    @NonNull
+    public PermissionSet getFeaturePermissions(int feature) {
+        synchronized (lock) {
+            return features[feature].permissions;
+        }
+    }
+
+    /**
+     * Check each distinct permission of the features once, and fire the granted or denied callback
+     * of each feature.
+     *
+     * @return the bitset of the enabled features
+     */
+    public long evaluate() {
+        boolean tracing = PermissionTracing.enabled;
+        if (tracing) {
+            PermissionTracing.beginSection(PermissionTracing.CHECK);
+        }
+
+        try {
+            Feature[] evaluatedFeatures;
+            String[][] evaluatedWords;
+            long sequence;
+            synchronized (lock) {
+                evaluatedFeatures = features;
+                evaluatedWords = permissionWords;
+                sequence = ++evaluationSequence;
+            }
+
+            // Check the permissions outside the lock, as checking may call the system...
+            long[] granted = new long[evaluatedWords.length];
+            for (int word = 0; word < evaluatedWords.length; word++) {
+                granted[word] = checkPermissions(evaluatedWords[word]);
+            }
+
+            long enabled = 0;
+            for (int feature = 0; feature < evaluatedFeatures.length; feature++) {
+                if (evaluatedFeatures[feature].isGranted(granted)) {
+                    enabled |= 1L << feature;
+                }
+            }
+
+            // Evaluations running at the same time may finish in any order, so only the result
+            // of the most recent one is published...
+            synchronized (lock) {
+                if (sequence > publishedSequence) {
+                    publishedSequence = sequence;
+                    enabledFeatures = enabled;
+                }
+            }
+
+            PermissionJournal journal = manager.getJournal();
+            if (journal != null && evaluatedWords.length == 1) {
+                journal.record(PermissionJournal.CHECK, -1, evaluatedWords[0], granted[0]);
+            }
+
+            PermissionUiBatcher uiBatcher = manager.getUiBatcher();
+            PermissionUiBatcher previousUiBatcher = uiBatcher != null ? PermissionUiBatcher.enter(uiBatcher) : null;
+            try {
+                for (int feature = 0; feature < evaluatedFeatures.length; feature++) {
+                    evaluatedFeatures[feature].fire((enabled & (1L << feature)) != 0);
+                }
+            } finally {
+                if (uiBatcher != null) {
+                    PermissionUiBatcher.exit(previousUiBatcher);
+                }
+            }
+
+            return enabled;
+        } finally {
+            if (tracing) {
+                PermissionTracing.endSection();
+            }
+        }
+    }
+
+    /**
+     * Get the bitset of the given permissions that are granted. Permissions that aren't declared
+     * in the manifest are denied, and only the declared permissions are checked.
+     */
+    private long checkPermissions(String[] wordPermissions) {
+        long undeclaredMask = manager.getUndeclaredMask(wordPermissions);
+        if (undeclaredMask == 0) {
+            return manager.checkPermissions(wordPermissions);
+        }
+
+        long grantedMask = 0;
+        for (int i = 0; i < wordPermissions.length; i++) {
+            if ((undeclaredMask & (1L << i)) == 0 && manager.isPermissionGranted(wordPermissions[i])) {
+                grantedMask |= 1L << i;
+            }
+        }
+
+        return grantedMask;
+    }
+
+    /**
+     * Get the bitset of the features enabled by the most recent evaluation, or 0 if the gate
+     * hasn't been evaluated yet.
+     */
+    public long getEnabledFeatures() {
+        return enabledFeatures;
+    }
+
+    public static boolean isEnabled(long enabledFeatures, int feature) {
+        return (enabledFeatures & (1L << feature)) != 0;
+    }
+
+    private static class Feature {
+        private final @NonNull PermissionSet permissions;
+        private final @NonNull int[] permissionIndexes;
+        private final OnPermissionGrantedCallback grantedCallback;
+        private final OnPermissionDeniedCallback deniedCallback;
+
+        Feature(@NonNull PermissionSet permissions, @NonNull int[] permissionIndexes, OnPermissionGrantedCallback grantedCallback, OnPermissionDeniedCallback deniedCallback) {
+            this.permissions = permissions;
+            this.permissionIndexes = permissionIndexes;
+            this.grantedCallback = grantedCallback;
+            this.deniedCallback = deniedCallback;
+        }
+
+        boolean isGranted(long[] grantedWords) {
+            for (int index : permissionIndexes) {
+                if ((grantedWords[index / Long.SIZE] & (1L << (index % Long.SIZE))) == 0) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        void fire(boolean granted) {
+            if (granted) {
+                if (grantedCallback != null) {
+                    grantedCallback.onPermissionGranted();
+                }
+            } else if (deniedCallback != null) {
+                deniedCallback.onPermissionDenied();
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The binary record of the pending requests saved in the instance state of the host, so that
+ * the result of a request can be delivered even if the host - or the whole process - is
+ * recreated while the permission dialog is showing.
+ * <p>
+ * The record starts with a version byte followed by the number of requests. Each request is
+ * stored as a flags byte, the request code, the key, the permissions, the mask of the permissions
+ * sent to the system and the mask of the granted permissions. The request code takes two bytes,
+ * as an activity can borrow 16 bit request codes from the {@link PermissionRequestRegistry}.
+ * Permissions in the android.permission namespace are stored without the prefix. Records of an
+ * unknown version are ignored.
+ */
+class PendingRequestRecord {
+    static final String STATE_KEY = "com.github.buchandersenn.android_permission_manager.PENDING_REQUESTS";
+
+    private static final int VERSION = 1;
+
+    private static final int FLAG_ANSWERED = 1;
+    private static final int FLAG_ANDROID_PERMISSION = 1;
+    private static final String ANDROID_PERMISSION_PREFIX = "android.permission.";
+
+    private PendingRequestRecord() {
+    }
+
+    /**
+     * Encode the given keyed requests, each either pending or restored and answered.
+     */
+    @NonNull
+    static byte[] encode(@NonNull List<PermissionRequest> requests) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(VERSION);
+            out.writeShort(requests.size());
+            for (PermissionRequest request : requests) {
+                PermissionResult answer = request instanceof RestoredPermissionRequest ? ((RestoredPermissionRequest) request).getAnswer() : null;
+                String[] permissions = request.getPermissions();
+
+                out.writeByte(answer != null ? FLAG_ANSWERED : 0);
+                out.writeShort(request.getDispatchedRequestCode());
+                out.writeUTF(request.getKey());
+                out.writeByte(permissions.length);
+                for (String permission : permissions) {
+                    if (permission.startsWith(ANDROID_PERMISSION_PREFIX)) {
+                        out.writeByte(FLAG_ANDROID_PERMISSION);
+                        out.writeUTF(permission.substring(ANDROID_PERMISSION_PREFIX.length()));
+                    } else {
+                        out.writeByte(0);
+                        out.writeUTF(permission);
+                    }
+                }
+                out.writeLong(getDispatchedMask(request));
+                out.writeLong(getGrantedMask(request, answer));
+            }
+            out.flush();
+        } catch (IOException e) {
+            // Writing to memory doesn't fail...
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode the requests of the given record, or return an empty list if the record
+     * is missing, of an unknown version or malformed.
+     */
+    @NonNull
+    static List<RestoredPermissionRequest> decode(@NonNull PermissionManager permissionManager, @Nullable byte[] record) {
+        List<RestoredPermissionRequest> requests = new ArrayList<>();
+        if (record == null) {
+            return requests;
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        try {
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                return requests;
+            }
+
+            int count = in.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                int flags = in.readUnsignedByte();
+                int requestCode = in.readUnsignedShort();
+                String key = in.readUTF();
+                String[] permissions = new String[in.readUnsignedByte()];
+                for (int p = 0; p < permissions.length; p++) {
+                    boolean androidPermission = in.readUnsignedByte() == FLAG_ANDROID_PERMISSION;
+                    String permission = in.readUTF();
+                    permissions[p] = androidPermission ? ANDROID_PERMISSION_PREFIX + permission : permission;
+                }
+                long dispatchedMask = in.readLong();
+                long grantedMask = in.readLong();
+
+                RestoredPermissionRequest request = new RestoredPermissionRequest(permissionManager, permissions, key, requestCode);
+                PermissionResult result = new PermissionResult(permissions, grantedMask, 0);
+                request.setDispatchedPermissions(result.select(dispatchedMask));
+                if ((flags & FLAG_ANSWERED) != 0) {
+                    request.setAnswer(result);
+                } else {
+                    request.setPermissionResult(result);
+                }
+                requests.add(request);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            requests.clear();
+        }
+
+        return requests;
+    }
+
+    private static long getDispatchedMask(PermissionRequest request) {
+        String[] permissions = request.getPermissions();
+        String[] dispatchedPermissions = request.getDispatchedPermissions();
+        long dispatchedMask = 0;
+        for (String permission : dispatchedPermissions) {
+            int index = PermissionUtil.indexOf(permissions, permission);
+            if (index >= 0) {
+                dispatchedMask |= 1L << index;
+            }
+        }
+
+        return dispatchedMask;
+    }
+
+    private static long getGrantedMask(PermissionRequest request, PermissionResult answer) {
+        PermissionResult result = answer != null ? answer : request.getPermissionResult();
+        if (result == null || result.getPermissions() != request.getPermissions()) {
+            return 0;
+        }
+
+        return result.getGrantedMask();
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The platform calls made by a {@link PermissionManager}: checking permissions, checking if a
+ * rationale should be shown and requesting permissions.
+ * <p>
+ * {@link PermissionManager#create(android.app.Activity)} and
+ * {@link PermissionManager#create(android.app.Fragment)} use backends calling the Android
+ * framework. Other backends, such as the {@link SimulatedPermissionBackend}, can be supplied
+ * through {@link PermissionManager#create(PermissionBackend)}, e.g. to run the PermissionManager
+ * off-device.
+ */
+public interface PermissionBackend {
+    /**
+     * Get the context used to look up the permissions declared by the app, or null if the
+     * backend has no context - in which case all permissions are assumed to be declared.
+     */
+    @Nullable
+    Context getContext();
+
+    boolean checkPermission(@NonNull String permission);
+
+    boolean shouldShowPermissionRationale(@NonNull String permission);
+
+    /**
+     * Request the given permissions. The backend must deliver the result to
+     * {@link PermissionManager#handlePermissionResult(int, String[], int[])}, either directly or
+     * through onRequestPermissionsResult of the activity/fragment.
+     */
+    void requestPermissions(int requestCode, @NonNull String[] permissions);
+
+    /**
+     * Get the executor used to fire the callbacks of asynchronous checks and requests,
+     * i.e. the main thread on Android.
+     */
+    @NonNull
+    Executor getCallbackExecutor();
+}
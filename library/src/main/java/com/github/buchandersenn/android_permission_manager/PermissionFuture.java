@@ -0,0 +1,145 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The handle returned by {@link PermissionRequestBuilder#checkAsync(Executor)} and
+ * {@link PermissionRequestBuilder#requestAsync(Executor)}.
+ * <p>
+ * The future completes with the {@link PermissionResult} evaluated on the background executor.
+ * The callbacks of the request are then delivered on the main thread - or rather, on the
+ * {@link PermissionBackend#getCallbackExecutor() callback executor} of the backend - unless the
+ * future has been cancelled before that. Cancelling the future after the evaluation has completed
+ * still prevents the callbacks, if they haven't been delivered yet. Note that for requestAsync()
+ * the result is the state of the permissions before the user is asked, the outcome of the request
+ * itself is only delivered to the callbacks.
+ */
+public class PermissionFuture extends FutureTask<PermissionResult> {
+    private static final int DELIVERY_PENDING = 0;
+    private static final int DELIVERY_STARTED = 1;
+    private static final int DELIVERY_CANCELLED = 2;
+
+    private final Executor callbackExecutor;
+    private final ResultHandler resultHandler;
+    private List<Listener> listeners = new ArrayList<>(1);
+
+    // FutureTask can't be cancelled once the evaluation has completed, so whether the callbacks
+    // are delivered is decided separately, by cancel() and deliver() racing for this state...
+    private final AtomicInteger deliveryState = new AtomicInteger(DELIVERY_PENDING);
+
+    PermissionFuture(@NonNull Callable<PermissionResult> evaluation, @NonNull Executor callbackExecutor, @NonNull ResultHandler resultHandler) {
+        super(evaluation);
+        this.callbackExecutor = callbackExecutor;
+        this.resultHandler = resultHandler;
+    }
+
+    /**
+     * Run the given listener on the given executor once the future is done. If the future is
+     * already done then the listener is run at once.
+     */
+    public void addListener(@NonNull Runnable listener, @NonNull Executor executor) {
+        synchronized (this) {
+            if (listeners != null) {
+                listeners.add(new Listener(listener, executor));
+                return;
+            }
+        }
+
+        executor.execute(listener);
+    }
+
+    /**
+     * Get the evaluated result, or null if the evaluation failed or was cancelled.
+     * Unlike {@link #get()}, this method never blocks.
+     */
+    public PermissionResult getResultNow() {
+        if (!isDone() || isCancelled()) {
+            return null;
+        }
+
+        try {
+            return get();
+        } catch (InterruptedException | ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Cancel the evaluation, if it hasn't completed yet, and the delivery of the callbacks, if
+     * they haven't been delivered yet.
+     *
+     * @return true if either the evaluation or the delivery of the callbacks was cancelled
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean deliveryCancelled = deliveryState.compareAndSet(DELIVERY_PENDING, DELIVERY_CANCELLED);
+        return super.cancel(mayInterruptIfRunning) || deliveryCancelled;
+    }
+
+    @Override
+    protected void done() {
+        if (!isCancelled()) {
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    deliver();
+                }
+            });
+        }
+
+        List<Listener> doneListeners;
+        synchronized (this) {
+            doneListeners = listeners;
+            listeners = null;
+        }
+
+        for (Listener listener : doneListeners) {
+            listener.executor.execute(listener.runnable);
+        }
+    }
+
+    private void deliver() {
+        if (!deliveryState.compareAndSet(DELIVERY_PENDING, DELIVERY_STARTED)) {
+            return;
+        }
+
+        // Rethrow any failure on the main thread, just like the synchronous check()/request()...
+        PermissionResult result;
+        try {
+            result = get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+
+        resultHandler.onResult(result);
+    }
+
+    interface ResultHandler {
+        void onResult(PermissionResult result);
+    }
+
+    private static class Listener {
+        private final Runnable runnable;
+        private final Executor executor;
+
+        public Listener(Runnable runnable, Executor executor) {
+            this.runnable = runnable;
+            this.executor = executor;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Maps each dangerous permission to its permission group.
+ * <p>
+ * The system asks the user about a whole permission group at a time, and the rationale state of
+ * the permissions in a group follows the group. The PermissionManager uses the table to query the
+ * rationale state of just one representative permission per group, and to order the permissions
+ * of a request group by group. The groups differ between platform levels, so a table is
+ * available for each level through {@link #forSdkInt(int)}. Custom tables can be created
+ * with {@link #PermissionGroupTable(String[][])}.
+ * <p>
+ * The built-in tables go up to Android 11 (API 30). Permissions added by later platforms, such
+ * as the nearby devices permissions of API 31 or the notification and media permissions of
+ * API 33, aren't part of any group and are treated as ungrouped, i.e. each is evaluated on its
+ * own. Supply a custom table to group them.
+ * <p>
+ * The table is kept as a sorted array of permissions and a matching array of group indexes,
+ * and lookups are binary searches.
+ */
+public class PermissionGroupTable {
+    public static final int NO_GROUP = -1;
+
+    private static final String[] CALENDAR = {
+            "android.permission.READ_CALENDAR",
+            "android.permission.WRITE_CALENDAR"};
+    private static final String[] CAMERA = {
+            "android.permission.CAMERA"};
+    private static final String[] CONTACTS = {
+            "android.permission.READ_CONTACTS",
+            "android.permission.WRITE_CONTACTS",
+            "android.permission.GET_ACCOUNTS"};
+    private static final String[] LOCATION = {
+            "android.permission.ACCESS_FINE_LOCATION",
+            "android.permission.ACCESS_COARSE_LOCATION"};
+    private static final String[] MICROPHONE = {
+            "android.permission.RECORD_AUDIO"};
+    private static final String[] SENSORS = {
+            "android.permission.BODY_SENSORS"};
+    private static final String[] SMS = {
+            "android.permission.SEND_SMS",
+            "android.permission.RECEIVE_SMS",
+            "android.permission.READ_SMS",
+            "android.permission.RECEIVE_WAP_PUSH",
+            "android.permission.RECEIVE_MMS"};
+    private static final String[] STORAGE = {
+            "android.permission.READ_EXTERNAL_STORAGE",
+            "android.permission.WRITE_EXTERNAL_STORAGE"};
+
+    /**
+     * The permission groups of Android 6.0 (API 23) through Android 7.1 (API 25).
+     */
+    public static final PermissionGroupTable MARSHMALLOW = new PermissionGroupTable(new String[][]{
+            CALENDAR, CAMERA, CONTACTS, LOCATION, MICROPHONE, SENSORS, SMS, STORAGE,
+            {
+                    "android.permission.READ_PHONE_STATE",
+                    "android.permission.CALL_PHONE",
+                    "android.permission.READ_CALL_LOG",
+                    "android.permission.WRITE_CALL_LOG",
+                    "com.android.voicemail.permission.ADD_VOICEMAIL",
+                    "android.permission.USE_SIP",
+                    "android.permission.PROCESS_OUTGOING_CALLS"}});
+
+    /**
+     * The permission groups of Android 8.0 (API 26) and Android 8.1 (API 27), which added
+     * new permissions to the phone group.
+     */
+    public static final PermissionGroupTable OREO = new PermissionGroupTable(new String[][]{
+            CALENDAR, CAMERA, CONTACTS, LOCATION, MICROPHONE, SENSORS, SMS, STORAGE,
+            {
+                    "android.permission.READ_PHONE_STATE",
+                    "android.permission.READ_PHONE_NUMBERS",
+                    "android.permission.CALL_PHONE",
+                    "android.permission.ANSWER_PHONE_CALLS",
+                    "android.permission.READ_CALL_LOG",
+                    "android.permission.WRITE_CALL_LOG",
+                    "com.android.voicemail.permission.ADD_VOICEMAIL",
+                    "android.permission.USE_SIP",
+                    "android.permission.PROCESS_OUTGOING_CALLS"}});
+
+    /**
+     * The permission groups of Android 9 (API 28), which moved the call log permissions
+     * out of the phone group and into a group of their own.
+     */
+    public static final PermissionGroupTable PIE = new PermissionGroupTable(new String[][]{
+            CALENDAR, CAMERA, CONTACTS, LOCATION, MICROPHONE, SENSORS, SMS, STORAGE,
+            {
+                    "android.permission.READ_PHONE_STATE",
+                    "android.permission.READ_PHONE_NUMBERS",
+                    "android.permission.CALL_PHONE",
+                    "android.permission.ANSWER_PHONE_CALLS",
+                    "com.android.voicemail.permission.ADD_VOICEMAIL",
+                    "android.permission.USE_SIP",
+                    "android.permission.ACCEPT_HANDOVER"},
+            {
+                    "android.permission.READ_CALL_LOG",
+                    "android.permission.WRITE_CALL_LOG",
+                    "android.permission.PROCESS_OUTGOING_CALLS"}});
+
+    /**
+     * The permission groups of Android 10 (API 29), which added background location to the
+     * location group, media location to the storage group and a group for activity recognition.
+     */
+    public static final PermissionGroupTable Q = new PermissionGroupTable(new String[][]{
+            CALENDAR, CAMERA, CONTACTS, MICROPHONE, SENSORS, SMS,
+            {
+                    "android.permission.ACCESS_FINE_LOCATION",
+                    "android.permission.ACCESS_COARSE_LOCATION",
+                    "android.permission.ACCESS_BACKGROUND_LOCATION"},
+            {
+                    "android.permission.READ_EXTERNAL_STORAGE",
+                    "android.permission.WRITE_EXTERNAL_STORAGE",
+                    "android.permission.ACCESS_MEDIA_LOCATION"},
+            {
+                    "android.permission.ACTIVITY_RECOGNITION"},
+            {
+                    "android.permission.READ_PHONE_STATE",
+                    "android.permission.READ_PHONE_NUMBERS",
+                    "android.permission.CALL_PHONE",
+                    "android.permission.ANSWER_PHONE_CALLS",
+                    "com.android.voicemail.permission.ADD_VOICEMAIL",
+                    "android.permission.USE_SIP",
+                    "android.permission.ACCEPT_HANDOVER"},
+            {
+                    "android.permission.READ_CALL_LOG",
+                    "android.permission.WRITE_CALL_LOG",
+                    "android.permission.PROCESS_OUTGOING_CALLS"}});
+
+    /**
+     * The permission groups of Android 11 (API 30), which made background location a permission
+     * of its own: it must be requested separately from the foreground location permissions, and
+     * has its own rationale state, so it isn't part of the location group.
+     */
+    public static final PermissionGroupTable R = new PermissionGroupTable(new String[][]{
+            CALENDAR, CAMERA, CONTACTS, LOCATION, MICROPHONE, SENSORS, SMS,
+            {
+                    "android.permission.READ_EXTERNAL_STORAGE",
+                    "android.permission.WRITE_EXTERNAL_STORAGE",
+                    "android.permission.ACCESS_MEDIA_LOCATION"},
+            {
+                    "android.permission.ACTIVITY_RECOGNITION"},
+            {
+                    "android.permission.READ_PHONE_STATE",
+                    "android.permission.READ_PHONE_NUMBERS",
+                    "android.permission.CALL_PHONE",
+                    "android.permission.ANSWER_PHONE_CALLS",
+                    "com.android.voicemail.permission.ADD_VOICEMAIL",
+                    "android.permission.USE_SIP",
+                    "android.permission.ACCEPT_HANDOVER"},
+            {
+                    "android.permission.READ_CALL_LOG",
+                    "android.permission.WRITE_CALL_LOG",
+                    "android.permission.PROCESS_OUTGOING_CALLS"}});
+
+    private final String[] permissions;
+    private final byte[] groups;
+
+    /**
+     * Create a table from the given groups, each group being an array of permissions.
+     * A permission may only be part of one group, and there can be at most 64 groups.
+     */
+    public PermissionGroupTable(@NonNull String[][] permissionGroups) {
+        if (permissionGroups.length > Long.SIZE) {
+            throw new IllegalArgumentException("A PermissionGroupTable can contain at most " + Long.SIZE + " groups");
+        }
+
+        int count = 0;
+        for (String[] permissionGroup : permissionGroups) {
+            count += permissionGroup.length;
+        }
+
+        String[] sortedPermissions = new String[count];
+        int next = 0;
+        for (String[] permissionGroup : permissionGroups) {
+            for (String permission : permissionGroup) {
+                sortedPermissions[next++] = permission;
+            }
+        }
+        Arrays.sort(sortedPermissions);
+
+        byte[] sortedGroups = new byte[count];
+        for (int group = 0; group < permissionGroups.length; group++) {
+            for (String permission : permissionGroups[group]) {
+                sortedGroups[Arrays.binarySearch(sortedPermissions, permission)] = (byte) group;
+            }
+        }
+
+        for (int i = 1; i < count; i++) {
+            if (sortedPermissions[i].equals(sortedPermissions[i - 1])) {
+                throw new IllegalArgumentException("The permission " + sortedPermissions[i] + " is part of more than one group");
+            }
+        }
+
+        this.permissions = sortedPermissions;
+        this.groups = sortedGroups;
+    }
+
+    /**
+     * Get the table for the given platform level, or null if the platform doesn't have runtime
+     * permissions. Platforms newer than Android 11 (API 30) are given the Android 11 table.
+     */
+    public static PermissionGroupTable forSdkInt(int sdkInt) {
+        if (sdkInt < 23) {
+            return null;
+        } else if (sdkInt < 26) {
+            return MARSHMALLOW;
+        } else if (sdkInt < 28) {
+            return OREO;
+        } else if (sdkInt < 29) {
+            return PIE;
+        } else if (sdkInt < 30) {
+            return Q;
+        } else {
+            return R;
+        }
+    }
+
+    /**
+     * Get the group of the given permission, or {@link #NO_GROUP} if it isn't part of a group.
+     */
+    public int getGroup(@NonNull String permission) {
+        int index = Arrays.binarySearch(permissions, permission);
+        return index < 0 ? NO_GROUP : groups[index];
+    }
+
+    /**
+     * Select one representative permission per group from the permissions in the given mask,
+     * i.e. the first permission of each group. Permissions that aren't part of a group are
+     * all selected.
+     */
+    long getRepresentativeMask(@NonNull String[] requestPermissions, long mask) {
+        long seenGroups = 0;
+        long representativeMask = 0;
+        for (int i = 0; i < requestPermissions.length; i++) {
+            long bit = 1L << i;
+            if ((mask & bit) == 0) {
+                continue;
+            }
+
+            int group = getGroup(requestPermissions[i]);
+            if (group == NO_GROUP) {
+                representativeMask |= bit;
+            } else if ((seenGroups & (1L << group)) == 0) {
+                seenGroups |= 1L << group;
+                representativeMask |= bit;
+            }
+        }
+
+        return representativeMask;
+    }
+
+    /**
+     * Expand the given source mask to all the permissions in the target mask that share a group
+     * with a permission in the source mask.
+     */
+    long expandToGroups(@NonNull String[] requestPermissions, long sourceMask, long targetMask) {
+        long sourceGroups = 0;
+        for (int i = 0; i < requestPermissions.length; i++) {
+            if ((sourceMask & (1L << i)) != 0) {
+                int group = getGroup(requestPermissions[i]);
+                if (group != NO_GROUP) {
+                    sourceGroups |= 1L << group;
+                }
+            }
+        }
+
+        long expandedMask = sourceMask;
+        for (int i = 0; i < requestPermissions.length; i++) {
+            long bit = 1L << i;
+            if ((targetMask & bit) != 0) {
+                int group = getGroup(requestPermissions[i]);
+                if (group != NO_GROUP && (sourceGroups & (1L << group)) != 0) {
+                    expandedMask |= bit;
+                }
+            }
+        }
+
+        return expandedMask;
+    }
+
+    /**
+     * Get the permissions in the given mask, ordered so that the permissions of each group
+     * are next to each other. Groups are ordered by their first appearance in the request.
+     */
+    @NonNull
+    String[] orderByGroup(@NonNull String[] requestPermissions, long mask) {
+        String[] ordered = new String[Long.bitCount(mask & PermissionResult.allMask(requestPermissions.length))];
+        int next = 0;
+        long remaining = mask & PermissionResult.allMask(requestPermissions.length);
+        while (remaining != 0) {
+            int first = Long.numberOfTrailingZeros(remaining);
+            int group = getGroup(requestPermissions[first]);
+            for (long candidates = remaining; candidates != 0; candidates &= candidates - 1) {
+                int i = Long.numberOfTrailingZeros(candidates);
+                if (i == first || (group != NO_GROUP && getGroup(requestPermissions[i]) == group)) {
+                    ordered[next++] = requestPermissions[i];
+                    remaining &= ~(1L << i);
+                }
+            }
+        }
+
+        return ordered;
+    }
+}
@@ -0,0 +1,218 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed-size journal of the recent work of the PermissionManager - every check, request,
+ * rationale, accepted rationale, dispatch to the system, result and callback - for diagnosing
+ * reports like "the button does nothing".
+ * <p>
+ * The journal is enabled by calling {@link PermissionManager#setJournal(PermissionJournal)}, and a
+ * single journal may be shared by several PermissionManagers. Events are kept in a preallocated
+ * ring buffer, overwriting the oldest events once it is full. Recording doesn't lock or
+ * allocate. Call {@link #dump(PrintWriter)}, e.g. from Activity.dump(), to print the events:
+ * <pre>
+ * &#64;Override
+ * public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+ *     super.dump(prefix, fd, writer, args);
+ *     journal.dump(writer);
+ * }
+ * </pre>
+ */
+public class PermissionJournal {
+    public static final int CHECK = 0;
+    public static final int REQUEST = 1;
+    public static final int RATIONALE_ACCEPTED = 2;
+    public static final int COALESCED = 3;
+    public static final int SCHEDULED = 4;
+    public static final int DISPATCHED = 5;
+    public static final int RESULT = 6;
+    public static final int CALLBACK_GRANTED = 7;
+    public static final int CALLBACK_DENIED = 8;
+    public static final int CALLBACK_PARTIALLY_GRANTED = 9;
+    public static final int CALLBACK_SHOW_RATIONALE = 10;
+
+    private static final String[] EVENT_NAMES = {
+            "CHECK", "REQUEST", "RATIONALE_ACCEPTED", "COALESCED", "SCHEDULED", "DISPATCHED",
+            "RESULT", "CALLBACK_GRANTED", "CALLBACK_DENIED", "CALLBACK_PARTIALLY_GRANTED", "CALLBACK_SHOW_RATIONALE"};
+
+    public static final int DEFAULT_CAPACITY = 128;
+
+    private final int mask;
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    // The sequence numbers keep increasing when the journal is cleared, so that a writer that is
+    // late never stamps a slot with a sequence number from before the clear...
+    private volatile long clearedSequence;
+
+    // Each slot is stamped with the sequence number of its event + 1 once the event is written,
+    // and with the negated stamp while it is being written. A writer claims a slot with a
+    // compare-and-set of the stamp, so two writers wrapping onto the same slot never interleave,
+    // and a reader compares the stamp before and after reading the slot to detect a slot being
+    // overwritten. The fields are atomic arrays, so their reads can't be reordered with the
+    // reads of the stamp...
+    private final AtomicLongArray stamps;
+    private final AtomicLongArray timestamps;
+    private final AtomicIntegerArray events;
+    private final AtomicIntegerArray requestCodes;
+    private final AtomicLongArray grantedMasks;
+    private final AtomicReferenceArray<String[]> permissions;
+
+    public PermissionJournal() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a journal keeping the given number of events, rounded up to a power of two.
+     */
+    public PermissionJournal(int capacity) {
+        if (capacity < 1 || capacity > 1 << 20) {
+            throw new IllegalArgumentException("The capacity must be between 1 and " + (1 << 20));
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        this.mask = size - 1;
+        this.stamps = new AtomicLongArray(size);
+        this.timestamps = new AtomicLongArray(size);
+        this.events = new AtomicIntegerArray(size);
+        this.requestCodes = new AtomicIntegerArray(size);
+        this.grantedMasks = new AtomicLongArray(size);
+        this.permissions = new AtomicReferenceArray<>(size);
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Record an event. The granted mask is a bitset of the given permissions, where bit i
+     * corresponds to permissions[i], and the request code is -1 if the event has none.
+     */
+    void record(int event, int requestCode, @Nullable String[] eventPermissions, long grantedMask) {
+        long sequence = nextSequence.getAndIncrement();
+        int slot = (int) (sequence & mask);
+        long stamp = sequence + 1;
+
+        // Claim the slot. If a newer event has claimed it already then this event has been
+        // overwritten before it was even written, and if an older event is still being written
+        // then wait for it - which only happens if the whole journal wraps around meanwhile...
+        while (true) {
+            long currentStamp = stamps.get(slot);
+            if (Math.abs(currentStamp) > stamp) {
+                return;
+            }
+            if (currentStamp < 0) {
+                Thread.yield();
+                continue;
+            }
+            if (stamps.compareAndSet(slot, currentStamp, -stamp)) {
+                break;
+            }
+        }
+
+        timestamps.set(slot, System.currentTimeMillis());
+        events.set(slot, event);
+        requestCodes.set(slot, requestCode);
+        grantedMasks.set(slot, grantedMask);
+        permissions.set(slot, eventPermissions);
+
+        stamps.set(slot, stamp);
+    }
+
+    /**
+     * The number of events recorded since the journal was created or cleared, including
+     * events that have since been overwritten.
+     */
+    public long getEventCount() {
+        return nextSequence.get() - clearedSequence;
+    }
+
+    /**
+     * Discard all events.
+     */
+    public void clear() {
+        clearedSequence = nextSequence.get();
+    }
+
+    /**
+     * Print the events in the journal, oldest first. Events being written while dumping are
+     * left out.
+     */
+    public void dump(@NonNull PrintWriter writer) {
+        long cleared = clearedSequence;
+        long end = nextSequence.get();
+        long start = Math.max(cleared, end - (mask + 1));
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
+
+        writer.println("PermissionJournal: " + (end - cleared) + " events, showing the last " + (end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = (int) (sequence & mask);
+            if (stamps.get(slot) != sequence + 1) {
+                continue;
+            }
+
+            long timestamp = timestamps.get(slot);
+            int event = events.get(slot);
+            int requestCode = requestCodes.get(slot);
+            long grantedMask = grantedMasks.get(slot);
+            String[] eventPermissions = permissions.get(slot);
+
+            // If the slot was overwritten while being read then skip it...
+            if (stamps.get(slot) != sequence + 1) {
+                continue;
+            }
+
+            StringBuilder line = new StringBuilder();
+            line.append("  #").append(sequence - cleared)
+                    .append(' ').append(format.format(new Date(timestamp)))
+                    .append(' ').append(event >= 0 && event < EVENT_NAMES.length ? EVENT_NAMES[event] : String.valueOf(event));
+            if (requestCode != -1) {
+                line.append(" requestCode=").append(requestCode);
+            }
+            if (eventPermissions != null && hasOutcome(event)) {
+                appendPermissions(line.append(" granted="), eventPermissions, grantedMask);
+                appendPermissions(line.append(" denied="), eventPermissions, ~grantedMask);
+            } else if (eventPermissions != null) {
+                appendPermissions(line.append(" permissions="), eventPermissions, -1L);
+            }
+            writer.println(line);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Coalesced, scheduled and dispatched events are recorded before the outcome is known.
+     */
+    private static boolean hasOutcome(int event) {
+        return event != COALESCED && event != SCHEDULED && event != DISPATCHED;
+    }
+
+    private static void appendPermissions(StringBuilder line, String[] eventPermissions, long permissionMask) {
+        line.append('[');
+        boolean first = true;
+        for (int i = 0; i < eventPermissions.length && i < PermissionResult.MAX_PERMISSIONS; i++) {
+            if ((permissionMask & (1L << i)) != 0) {
+                if (!first) {
+                    line.append(", ");
+                }
+                line.append(eventPermissions[i]);
+                first = false;
+            }
+        }
+        line.append(']');
+    }
+}
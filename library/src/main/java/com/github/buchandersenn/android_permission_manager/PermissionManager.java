@@ -1,172 +1,1329 @@
 package com.github.buchandersenn.android_permission_manager;
 
 import android.app.Activity;
+import android.app.Application;
 import android.app.Fragment;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v13.app.FragmentCompat;
 import android.support.v4.app.ActivityCompat;
-import android.util.SparseArray;
+import android.support.v4.app.FragmentActivity;
+import android.support.v4.content.ContextCompat;
 
-public abstract class PermissionManager {
-    private static final int MAX_REQUEST_CODE = 255;
+import com.github.buchandersenn.android_permission_manager.callbacks.OnPermissionStateChangedCallback;
+import com.github.buchandersenn.android_permission_manager.callbacks.PermissionUiBatcher;
 
-    private final Object requestCodeLock = new Object();
-    private final SparseArray<PermissionRequest> requests = new SparseArray<>();
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PermissionManager {
+    /**
+     * The default age after which an unanswered request is dropped.
+     */
+    public static final long DEFAULT_MAX_PENDING_REQUEST_AGE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final @NonNull PermissionBackend backend;
+    private final PermissionRequestRegistry.Host requests;
+    private final PermissionRequestScheduler scheduler = new PermissionRequestScheduler(this);
+    private final PermissionStateTracker stateTracker = new PermissionStateTracker(this);
+
+    private static volatile PermissionStateCache defaultPermissionStateCache;
+
+    // Until a cache is set explicitly the process-wide default is used, which is read on each
+    // check so that managers created before prefetch() use it too...
+    private volatile PermissionStateCache permissionStateCache;
+    private volatile boolean permissionStateCacheSet;
+    private volatile PermissionGroupTable permissionGroupTable;
+    private volatile PermissionMetrics permissionMetrics;
+    private volatile PermissionJournal journal;
+    private volatile PermissionUiBatcher uiBatcher;
+    private volatile long maxPendingRequestAgeNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_PENDING_REQUEST_AGE_MILLIS);
+
+    private final AtomicBoolean attachedToHost = new AtomicBoolean();
+    private final AtomicLong droppedRequestCount = new AtomicLong();
+    private final ConcurrentHashMap<String, RestoredPermissionRequest> restoredRequests = new ConcurrentHashMap<>();
+
+    // Holds the request code of a request dropped for its age, until its result arrives...
+    private final PermissionRequest evictedRequest = new PermissionRequest(this, new String[0], -1, null, null, null);
+
+    protected PermissionManager(@NonNull PermissionBackend backend) {
+        this.backend = backend;
+
+        // Framework activities can use 16 bit request codes, while fragments and support library
+        // activities can only use 8 bit request codes...
+        this.requests = PermissionRequestRegistry.getInstance().register(backend instanceof ActivityPermissionBackend && ((ActivityPermissionBackend) backend).acceptsWideRequestCodes());
+    }
 
     public static PermissionManager create(Activity activity) {
-        return new ActivityPermissionManager(activity);
+        return new PermissionManager(new ActivityPermissionBackend(activity));
     }
 
     public static PermissionManager create(Fragment fragment) {
-        return new FragmentPermissionManager(fragment);
+        return new PermissionManager(new FragmentPermissionBackend(fragment));
+    }
+
+    /**
+     * Create a PermissionManager using the given backend for all platform calls.
+     */
+    public static PermissionManager create(@NonNull PermissionBackend backend) {
+        return new PermissionManager(backend);
+    }
+
+    /**
+     * Warm the process-wide {@link PermissionStateCache} with the state of the given permissions
+     * on a background thread. Call this from Application.onCreate(), so that the checks of the
+     * launch activity are served from memory instead of calling the system. PermissionManagers
+     * use the process-wide cache by default after this call, unless a cache has been set with
+     * {@link #setPermissionStateCache(PermissionStateCache)}.
+     */
+    public static void prefetch(@NonNull Context context, @NonNull String... permissions) {
+        PermissionStateCache cache = PermissionStateCache.getInstance();
+        defaultPermissionStateCache = cache;
+        cache.prefetch(context, permissions);
     }
 
     public PermissionRequestBuilder with(@NonNull String... permissions) {
         if (permissions.length < 1) {
             throw new IllegalArgumentException("PermissionManager.with(String... permissions) must be called with at least one permission");
         }
+        if (permissions.length > PermissionResult.MAX_PERMISSIONS) {
+            throw new IllegalArgumentException("PermissionManager.with(String... permissions) must be called with at most " + PermissionResult.MAX_PERMISSIONS + " permissions");
+        }
+
+        // The permissions are requested, and the results indexed, in the order given, while the
+        // interned set identifies the permissions when coalescing requests. If the permissions
+        // are given in sorted order then the request shares the array of the set...
+        PermissionSet permissionSet = PermissionSet.of(permissions);
+        String[] orderedPermissions = Arrays.equals(permissions, permissionSet.getPermissions()) ? permissionSet.getPermissions() : permissions.clone();
+        return new PermissionRequestBuilder(this, permissionSet, orderedPermissions);
+    }
+
+    /**
+     * Like {@link #with(String...)}, but with a set of permissions that can be created once
+     * and reused for every request. The permissions are requested in the order of the set,
+     * i.e. sorted by name.
+     */
+    public PermissionRequestBuilder with(@NonNull PermissionSet permissions) {
+        if (permissions.size() < 1) {
+            throw new IllegalArgumentException("PermissionManager.with(PermissionSet permissions) must be called with at least one permission");
+        }
+        if (permissions.size() > PermissionResult.MAX_PERMISSIONS) {
+            throw new IllegalArgumentException("PermissionManager.with(PermissionSet permissions) must be called with at most " + PermissionResult.MAX_PERMISSIONS + " permissions");
+        }
+
+        return new PermissionRequestBuilder(this, permissions, permissions.getPermissions());
+    }
+
+    /**
+     * Create a gate for evaluating the permissions of many features at once, checking each
+     * distinct permission only once.
+     */
+    @NonNull
+    public FeatureGate createFeatureGate() {
+        return new FeatureGate(this);
+    }
+
+    /**
+     * Enable caching of permission states by supplying a cache, typically the process-wide
+     * {@link PermissionStateCache#getInstance()}, or disable caching by supplying null.
+     */
+    public void setPermissionStateCache(@Nullable PermissionStateCache permissionStateCache) {
+        this.permissionStateCache = permissionStateCache;
+        this.permissionStateCacheSet = true;
+    }
+
+    /**
+     * Get the cache used by this PermissionManager - the cache set with
+     * {@link #setPermissionStateCache(PermissionStateCache)}, or else the process-wide cache if
+     * {@link #prefetch(Context, String...)} has been called.
+     */
+    @Nullable
+    public PermissionStateCache getPermissionStateCache() {
+        return permissionStateCacheSet ? permissionStateCache : defaultPermissionStateCache;
+    }
+
+    @NonNull
+    public PermissionBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Get the scheduler that queues the permission requests of this PermissionManager,
+     * e.g. to inspect the queue depth and wait time metrics.
+     */
+    @NonNull
+    public PermissionRequestScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Enable permission group aware evaluation by supplying a table, typically
+     * {@code PermissionGroupTable.forSdkInt(Build.VERSION.SDK_INT)}, or disable it by supplying null.
+     */
+    public void setPermissionGroupTable(@Nullable PermissionGroupTable permissionGroupTable) {
+        this.permissionGroupTable = permissionGroupTable;
+    }
+
+    @Nullable
+    public PermissionGroupTable getPermissionGroupTable() {
+        return permissionGroupTable;
+    }
+
+    /**
+     * Enable recording of request latencies and outcomes by supplying a {@link PermissionMetrics},
+     * or disable it by supplying null.
+     */
+    public void setPermissionMetrics(@Nullable PermissionMetrics permissionMetrics) {
+        this.permissionMetrics = permissionMetrics;
+    }
+
+    @Nullable
+    public PermissionMetrics getPermissionMetrics() {
+        return permissionMetrics;
+    }
+
+    /**
+     * Enable recording of the recent checks, requests, results and callbacks by supplying
+     * a {@link PermissionJournal}, or disable it by supplying null.
+     */
+    public void setJournal(@Nullable PermissionJournal journal) {
+        this.journal = journal;
+    }
+
+    @Nullable
+    public PermissionJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Batch the UI side effects of the callbacks in
+     * {@link com.github.buchandersenn.android_permission_manager.callbacks.PermissionCallbacks}
+     * by supplying a {@link PermissionUiBatcher}, or apply them at once by supplying null. The
+     * batcher must not be shared with the PermissionManager of another host.
+     */
+    public void setUiBatcher(@Nullable PermissionUiBatcher uiBatcher) {
+        this.uiBatcher = uiBatcher;
+        if (uiBatcher != null) {
+            attachToHost();
+        }
+    }
+
+    @Nullable
+    public PermissionUiBatcher getUiBatcher() {
+        return uiBatcher;
+    }
+
+    /**
+     * Set the age after which a request that hasn't been answered is dropped, along with its
+     * callbacks, or 0 to keep unanswered requests until the host is destroyed. The age counts
+     * from when the request was sent to the system, and the request in flight is never dropped
+     * for its age, as its dialog may still be showing.
+     */
+    public void setMaxPendingRequestAge(long maxAge, @NonNull TimeUnit unit) {
+        this.maxPendingRequestAgeNanos = unit.toNanos(maxAge);
+    }
+
+    /**
+     * Drop all pending requests and their callbacks, as their results can no longer be delivered.
+     * This is done automatically when the activity hosting the PermissionManager is destroyed,
+     * but a fragment that outlives its requests can call it from onDestroy().
+     *
+     * @return the number of requests dropped
+     */
+    public int releasePendingRequests() {
+        int dropped = dropPendingRequests(0);
+        requests.releaseEmptyPages();
+        return dropped;
+    }
+
+    /**
+     * The number of requests - including requests coalesced with them - that were dropped
+     * before being answered, either because the host was destroyed or because they were too old.
+     * Each of them would otherwise have kept its callbacks, and whatever views and contexts they
+     * reference, in memory.
+     */
+    public long getDroppedRequestCount() {
+        return droppedRequestCount.get();
+    }
+
+    /**
+     * The number of requests registered and waiting for a result, including requests waiting
+     * for a request code to become available.
+     */
+    public int getPendingRequestCount() {
+        return requests.size() + requests.overflowSize();
+    }
+
+    /**
+     * Save the pending requests made with a key, see {@link PermissionRequestBuilder#usingKey(String)},
+     * so that their results can be delivered after the host is recreated. Call this from
+     * onSaveInstanceState() of the host.
+     * <p>
+     * Only the requests sent to the system are saved, as only they can get a result after the
+     * host is recreated. Requests still waiting in the queue or for a request code are dropped
+     * with the host, and are made as new requests when the recreated host makes them again.
+     */
+    public void onSaveInstanceState(@NonNull Bundle outState) {
+        List<PermissionRequest> keyedRequests = new ArrayList<>();
+        for (int requestCode = requests.nextUsed(0); requestCode != -1; requestCode = requests.nextUsed(requestCode + 1)) {
+            PermissionRequest request = requests.get(requestCode);
+            if (request != null && request.getKey() != null && !scheduler.isQueued(requestCode)) {
+                keyedRequests.add(request);
+            }
+        }
+        for (RestoredPermissionRequest request : restoredRequests.values()) {
+            if (request.getAnswer() != null) {
+                keyedRequests.add(request);
+            }
+        }
+
+        if (!keyedRequests.isEmpty()) {
+            outState.putByteArray(PendingRequestRecord.STATE_KEY, PendingRequestRecord.encode(keyedRequests));
+        }
+    }
+
+    /**
+     * Restore the pending requests saved by {@link #onSaveInstanceState(Bundle)}. Call this from
+     * onCreate() of the host, before making any requests. The result of a restored request is
+     * delivered to the first request made with the same key.
+     */
+    public void onRestoreInstanceState(@Nullable Bundle savedInstanceState) {
+        if (savedInstanceState == null) {
+            return;
+        }
+
+        for (RestoredPermissionRequest request : PendingRequestRecord.decode(this, savedInstanceState.getByteArray(PendingRequestRecord.STATE_KEY))) {
+            // A request that was still waiting for its result keeps its request code reserved,
+            // so that the result can be matched with it...
+            if (request.getAnswer() == null && !requests.reserve(request.getDispatchedRequestCode(), request)) {
+                continue;
+            }
+
+            restoredRequests.put(request.getKey(), request);
+        }
+    }
+
+    /**
+     * Observe the state of the given permissions. The callback is invoked whenever one of the
+     * permissions changes from denied to granted or back - e.g. because the user answered a
+     * request or changed the permission in the system settings. The states are compared with
+     * the last known states when a permission result is handled, when the host activity is
+     * resumed and when {@link #refreshPermissionStates()} is called, and only actual changes
+     * are reported.
+     * <p>
+     * The subscriptions are dropped when the host activity is destroyed.
+     */
+    @NonNull
+    public PermissionSubscription observe(@NonNull PermissionSet permissions, @NonNull OnPermissionStateChangedCallback callback) {
+        PermissionSubscription subscription = stateTracker.subscribe(permissions, callback);
+        attachToHost();
+        return subscription;
+    }
+
+    @NonNull
+    public PermissionSubscription observe(@NonNull OnPermissionStateChangedCallback callback, @NonNull String... permissions) {
+        return observe(PermissionSet.of(permissions), callback);
+    }
+
+    /**
+     * Compare the state of the observed permissions with their last known state, and notify the
+     * subscriptions of any changes. This is done automatically when the host activity is resumed,
+     * so there is normally no need to call it.
+     *
+     * @return the number of permissions whose state has changed
+     */
+    public int refreshPermissionStates() {
+        return stateTracker.refresh();
+    }
+
+    /**
+     * Check if all the given permissions are granted, without firing any callbacks. Unlike
+     * {@link #with(PermissionSet)} the check doesn't allocate, which is why the dispatchers
+     * generated by the compiler module use it.
+     */
+    public boolean isGranted(@NonNull PermissionSet permissions) {
+        String[] permissionArray = permissions.getPermissions();
+        long grantedMask = checkPermissions(permissionArray);
+
+        PermissionJournal journal = this.journal;
+        if (journal != null) {
+            journal.record(PermissionJournal.CHECK, -1, permissionArray, grantedMask);
+        }
 
-        return new PermissionRequestBuilder(this, permissions);
+        return grantedMask == PermissionResult.allMask(permissionArray.length);
+    }
+
+    /**
+     * Check if a rationale should be shown for any of the given permissions that aren't granted.
+     */
+    public boolean shouldShowRationale(@NonNull PermissionSet permissions) {
+        String[] permissionArray = permissions.getPermissions();
+        long deniedMask = ~checkPermissions(permissionArray) & PermissionResult.allMask(permissionArray.length);
+        if (deniedMask == 0) {
+            return false;
+        }
+
+        PermissionGroupTable groupTable = permissionGroupTable;
+        if (groupTable != null) {
+            deniedMask = groupTable.getRepresentativeMask(permissionArray, deniedMask);
+        }
+
+        return shouldShowPermissionRationale(permissionArray, deniedMask) != 0;
+    }
+
+    /**
+     * Request the given permissions from the user with the given request code, without any
+     * callbacks. The request is scheduled like any other request, but its result is routed by
+     * the caller: {@link #handlePermissionResult(int, String[], int[])} returns false for it.
+     * As the result is matched by request code alone it is still routed if the host is recreated
+     * while the dialog is showing. Requesting the same permissions again with a request code that
+     * is already pending does nothing.
+     *
+     * @throws IllegalStateException if the request code is in use by another request
+     */
+    public void requestPermissions(int requestCode, @NonNull PermissionSet permissions) {
+        PermissionRequest pendingRequest = requests.get(requestCode);
+        if (pendingRequest instanceof RoutedPermissionRequest && pendingRequest.getPermissionSet() == permissions) {
+            PermissionJournal journal = this.journal;
+            if (journal != null) {
+                journal.record(PermissionJournal.COALESCED, requestCode, permissions.getPermissions(), 0);
+            }
+            return;
+        }
+
+        PermissionRequest permissionRequest = new RoutedPermissionRequest(this, permissions, requestCode);
+        markRequested(permissionRequest);
+        requestPermission(permissionRequest);
     }
 
     public boolean handlePermissionResult(int requestCode, @NonNull int[] grantResults) {
-        PermissionRequest request = requests.get(requestCode);
-        unregisterCallbacks(requestCode);
+        return handlePermissionResult(requestCode, null, grantResults);
+    }
+
+    /**
+     * Handle the result of a permission request, as delivered to onRequestPermissionsResult.
+     * The permissions array is used to match each grant result with its permission, so that
+     * an {@link com.github.buchandersenn.android_permission_manager.callbacks.OnPermissionPartiallyGrantedCallback}
+     * can be told exactly which permissions were granted and which were denied.
+     */
+    public boolean handlePermissionResult(int requestCode, @Nullable String[] permissions, @NonNull int[] grantResults) {
+        boolean tracing = PermissionTracing.enabled;
+        if (tracing) {
+            PermissionTracing.beginSection(PermissionTracing.HANDLE_PERMISSION_RESULT);
+        }
+
+        PermissionJournal journal = this.journal;
+        if (journal != null) {
+            journal.record(PermissionJournal.RESULT, requestCode, permissions, PermissionUtil.verifyPermissionResults(grantResults));
+        }
+
+        try {
+            boolean handled = dispatchPermissionResult(requestCode, permissions, grantResults);
+            if (!stateTracker.isEmpty()) {
+                stateTracker.refresh();
+            }
+            return handled;
+        } finally {
+            // The dialog has been answered, so the next request in the queue can be shown...
+            scheduler.onResult(requestCode);
+            if (tracing) {
+                PermissionTracing.endSection();
+            }
+        }
+    }
+
+    private boolean dispatchPermissionResult(int requestCode, @Nullable String[] permissions, @NonNull int[] grantResults) {
+        PermissionRequest request = unregisterCallbacks(requestCode);
+        if (request == evictedRequest) {
+            // The request was dropped for its age, and its request code was kept until now so
+            // that its late result can't be taken for the result of another request...
+            request = null;
+        }
+
+        // The user has answered a request, so any cached permission state might be stale - both
+        // in the cache of this PermissionManager and in the process-wide cache used by others...
+        PermissionStateCache cache = getPermissionStateCache();
+        if (cache != null) {
+            cache.invalidate();
+        }
+        PermissionStateCache defaultCache = defaultPermissionStateCache;
+        if (defaultCache != null && defaultCache != cache) {
+            defaultCache.invalidate();
+        }
 
         // If no request callbacks could be found then return false...
         if (request == null) {
             return false;
         }
 
-        // Else execute the appropriate callback...
-        if (PermissionUtil.verifyPermissionResults(grantResults)) {
+        endPendingSection(request, requestCode);
+
+        // The permissions array is empty if the request was cancelled, in which case
+        // the permissions sent to the system are used instead...
+        if (permissions == null || permissions.length == 0 || permissions.length > PermissionResult.MAX_PERMISSIONS) {
+            permissions = request.getDispatchedPermissions();
+        }
+
+        // Else execute the appropriate callback - both for the request itself and for
+        // any requests that were coalesced with it while it was in flight...
+        PermissionResult dispatchedResult = new PermissionResult(permissions, PermissionUtil.verifyPermissionResults(grantResults), 0);
+        PermissionResult result = mergeResult(request, dispatchedResult);
+
+        // The result of a restored request is kept until the recreated host makes the
+        // request again...
+        if (request instanceof RestoredPermissionRequest) {
+            ((RestoredPermissionRequest) request).setAnswer(result);
+            return true;
+        }
+
+        // The result of a routed request is left to the caller, but the requests coalesced
+        // with it are dispatched as usual...
+        boolean routed = request instanceof RoutedPermissionRequest;
+        recordResult(request, result, requestCode);
+        if (!routed) {
+            dispatchResult(request, result);
+        }
+        for (PermissionRequest waiter : request.completeWaiters()) {
+            PermissionResult waiterResult = result.project(waiter.getPermissions());
+            recordResult(waiter, waiterResult, requestCode);
+            dispatchResult(waiter, waiterResult);
+        }
+
+        return !routed;
+    }
+
+    /**
+     * Combine the result of the permissions sent to the system with the permissions of the
+     * request that were already granted, and therefore weren't sent to the system.
+     */
+    private PermissionResult mergeResult(PermissionRequest request, PermissionResult dispatchedResult) {
+        String[] requestPermissions = request.getPermissions();
+        PermissionResult previousResult = request.getPermissionResult();
+
+        long grantedMask = dispatchedResult.project(requestPermissions).getGrantedMask();
+        if (previousResult != null && previousResult.getPermissions() == requestPermissions) {
+            grantedMask |= previousResult.getGrantedMask();
+        }
+
+        return new PermissionResult(requestPermissions, grantedMask, 0);
+    }
+
+    private void recordResult(PermissionRequest request, PermissionResult result, int requestCode) {
+        PermissionMetrics metrics = permissionMetrics;
+        if (metrics == null) {
+            return;
+        }
+
+        long requestedAtNanos = request.getRequestedAtNanos();
+        if (requestedAtNanos != 0) {
+            metrics.recordLatency(System.nanoTime() - requestedAtNanos);
+        }
+        metrics.record(PermissionMetrics.GRANTED, result.getPermissions(), result.getGrantedMask(), requestCode);
+        metrics.record(PermissionMetrics.DENIED, result.getPermissions(), result.getDeniedMask(), requestCode);
+    }
+
+    private void dispatchResult(PermissionRequest request, PermissionResult result) {
+        request.setPermissionResult(result);
+        if (result.isGranted()) {
             request.fireOnPermissionGrantedCallback();
         } else {
             request.fireOnPermissionDeniedCallback();
         }
-
-        return true;
     }
 
     protected void check(PermissionRequest permissionRequest) {
-        if (checkPermissions(permissionRequest.getPermissions())) {
+        boolean tracing = PermissionTracing.enabled;
+        if (tracing) {
+            PermissionTracing.beginSection(PermissionTracing.CHECK);
+        }
+
+        try {
+            PermissionResult result = evaluate(permissionRequest.getPermissions(), false);
+            onCheckEvaluated(permissionRequest, result);
+        } finally {
+            if (tracing) {
+                PermissionTracing.endSection();
+            }
+        }
+    }
+
+    /**
+     * Like {@link #check(PermissionRequest)}, but for a request that is checked repeatedly. If the
+     * state of the permissions hasn't changed since the last check then the previous result is
+     * reused, so that a check doesn't allocate.
+     */
+    void checkPrepared(PermissionRequest permissionRequest) {
+        boolean tracing = PermissionTracing.enabled;
+        if (tracing) {
+            PermissionTracing.beginSection(PermissionTracing.CHECK);
+        }
+
+        try {
+            onCheckEvaluated(permissionRequest, reevaluate(permissionRequest));
+        } finally {
+            if (tracing) {
+                PermissionTracing.endSection();
+            }
+        }
+    }
+
+    /**
+     * Evaluate the permissions of the given request for a check, reusing the previous result
+     * of the request if the granted permissions are the same.
+     */
+    PermissionResult reevaluate(PermissionRequest permissionRequest) {
+        String[] permissions = permissionRequest.getPermissions();
+        PermissionResult previousResult = permissionRequest.getPermissionResult();
+        if (previousResult == null
+                || previousResult.getPermissions() != permissions
+                || previousResult.getUndeclaredMask() != 0
+                || previousResult.getShowRationaleMask() != 0
+                || getUndeclaredMask(permissions) != 0) {
+            return evaluate(permissions, false);
+        }
+
+        // The previous result is only reused if it was served from the cache the same way, so
+        // that isCached() reports the current evaluation...
+        PermissionStateCache cache = getPermissionStateCache();
+        boolean cached = cache != null && cache.containsAll(permissions);
+        long grantedMask = checkPermissions(permissions);
+        if (grantedMask == previousResult.getGrantedMask() && cached == previousResult.isCached()) {
+            return previousResult;
+        }
+
+        return new PermissionResult(permissions, grantedMask, 0, 0, cached);
+    }
+
+    protected void request(PermissionRequest permissionRequest) {
+        boolean tracing = PermissionTracing.enabled;
+        if (tracing) {
+            PermissionTracing.beginSection(PermissionTracing.REQUEST);
+        }
+
+        try {
+            markRequested(permissionRequest);
+            PermissionResult result = evaluate(permissionRequest.getPermissions(), true);
+            onRequestEvaluated(permissionRequest, result);
+        } finally {
+            if (tracing) {
+                PermissionTracing.endSection();
+            }
+        }
+    }
+
+    /**
+     * Evaluate the permissions of the request on the given executor, and fire the callbacks
+     * on the main thread.
+     */
+    protected PermissionFuture checkAsync(final PermissionRequest permissionRequest, @NonNull Executor executor) {
+        return evaluateAsync(permissionRequest, false, executor, new PermissionFuture.ResultHandler() {
+            @Override
+            public void onResult(PermissionResult result) {
+                onCheckEvaluated(permissionRequest, result);
+            }
+        });
+    }
+
+    /**
+     * Evaluate the permissions of the request on the given executor, and fire the callbacks
+     * or request the permissions on the main thread.
+     */
+    protected PermissionFuture requestAsync(final PermissionRequest permissionRequest, @NonNull Executor executor) {
+        markRequested(permissionRequest);
+        return evaluateAsync(permissionRequest, true, executor, new PermissionFuture.ResultHandler() {
+            @Override
+            public void onResult(PermissionResult result) {
+                onRequestEvaluated(permissionRequest, result);
+            }
+        });
+    }
+
+    private PermissionFuture evaluateAsync(final PermissionRequest permissionRequest, final boolean includeRationale, Executor executor, PermissionFuture.ResultHandler resultHandler) {
+        PermissionFuture future = new PermissionFuture(new Callable<PermissionResult>() {
+            @Override
+            public PermissionResult call() {
+                return evaluate(permissionRequest.getPermissions(), includeRationale);
+            }
+        }, backend.getCallbackExecutor(), resultHandler);
+
+        executor.execute(future);
+        return future;
+    }
+
+    private void onCheckEvaluated(PermissionRequest permissionRequest, PermissionResult result) {
+        PermissionJournal journal = this.journal;
+        if (journal != null) {
+            journal.record(PermissionJournal.CHECK, -1, result.getPermissions(), result.getGrantedMask());
+        }
+
+        permissionRequest.setPermissionResult(result);
+        if (result.isGranted()) {
             permissionRequest.fireOnPermissionGrantedCallback();
         } else {
             permissionRequest.fireOnPermissionDeniedCallback();
         }
     }
 
-    protected void request(PermissionRequest permissionRequest) {
-        if (checkPermissions(permissionRequest.getPermissions())) {
+    /**
+     * Record when the request with the given request code is sent to the system, which is when
+     * its age starts counting. Called by the scheduler.
+     */
+    void markDispatched(int requestCode) {
+        PermissionRequest request = requests.get(requestCode);
+        if (request != null) {
+            request.setDispatchedAtNanos(System.nanoTime());
+        }
+    }
+
+    private void markRequested(PermissionRequest permissionRequest) {
+        if (permissionMetrics != null) {
+            permissionRequest.setRequestedAtNanos(System.nanoTime());
+        }
+    }
+
+    private void onRequestEvaluated(PermissionRequest permissionRequest, PermissionResult result) {
+        PermissionJournal journal = this.journal;
+        if (journal != null) {
+            journal.record(PermissionJournal.REQUEST, permissionRequest.getRequestCode(), result.getPermissions(), result.getGrantedMask());
+        }
+
+        PermissionMetrics metrics = permissionMetrics;
+        permissionRequest.setPermissionResult(result);
+
+        // If the request was made before the host was recreated then take over its result...
+        if (bindRestoredRequest(permissionRequest)) {
+            return;
+        }
+
+        if (result.isGranted()) {
+            if (metrics != null) {
+                metrics.record(PermissionMetrics.GRANTED, result.getPermissions(), result.getGrantedMask(), permissionRequest.getRequestCode());
+            }
             permissionRequest.fireOnPermissionGrantedCallback();
             return;
         }
 
-        if (shouldShowPermissionRationale(permissionRequest.getPermissions())) {
+        // Undeclared permissions can never be granted, so don't ask the user...
+        if (result.getUndeclaredMask() != 0) {
+            if (metrics != null) {
+                metrics.record(PermissionMetrics.DENIED, result.getPermissions(), result.getDeniedMask(), permissionRequest.getRequestCode());
+            }
+            permissionRequest.fireOnPermissionDeniedCallback();
+        } else if (result.shouldShowRationale()) {
+            if (metrics != null) {
+                metrics.record(PermissionMetrics.RATIONALE, result.getPermissions(), result.getShowRationaleMask(), permissionRequest.getRequestCode());
+            }
             permissionRequest.fireOnPermissionShowRationaleCallback();
         } else {
             requestPermission(permissionRequest);
         }
     }
 
+    /**
+     * Bind the given request to the restored request with the same key, if there is one. If the
+     * result of the restored request has arrived then it is dispatched to the given request at
+     * once, otherwise the given request takes over the request code of the restored request.
+     * @return true if the request was bound to a restored request
+     */
+    private boolean bindRestoredRequest(PermissionRequest permissionRequest) {
+        String key = permissionRequest.getKey();
+        if (key == null || restoredRequests.isEmpty()) {
+            return false;
+        }
+
+        RestoredPermissionRequest restoredRequest = restoredRequests.remove(key);
+        if (restoredRequest == null) {
+            return false;
+        }
+
+        int requestCode = restoredRequest.getDispatchedRequestCode();
+        if (restoredRequest.getAnswer() == null && requests.replace(requestCode, restoredRequest, permissionRequest)) {
+            permissionRequest.setDispatchedRequestCode(requestCode);
+            permissionRequest.setDispatchedPermissions(restoredRequest.getDispatchedPermissions());
+            permissionRequest.setDispatchedAtNanos(restoredRequest.getDispatchedAtNanos());
+            attachToHost();
+            return true;
+        }
+
+        PermissionResult answer = restoredRequest.getAnswer();
+        if (answer == null) {
+            return false;
+        }
+
+        PermissionResult result = answer.project(permissionRequest.getPermissions());
+        recordResult(permissionRequest, result, requestCode);
+        dispatchResult(permissionRequest, result);
+        return true;
+    }
+
+    /**
+     * Evaluate the state of all the given permissions in one pass. The rationale state is
+     * only evaluated if requested, and only for the permissions that aren't granted.
+     * If some of the permissions aren't declared in the manifest then the request can't
+     * be granted, and the permissions are reported as denied without calling the system.
+     */
+    protected PermissionResult evaluate(String[] permissions, boolean includeRationale) {
+        long undeclaredMask = getUndeclaredMask(permissions);
+        if (undeclaredMask != 0) {
+            return new PermissionResult(permissions, 0, 0, undeclaredMask, false);
+        }
+
+        PermissionStateCache cache = getPermissionStateCache();
+        boolean cached = cache != null && cache.containsAll(permissions);
+
+        long grantedMask = checkPermissions(permissions);
+        long deniedMask = ~grantedMask & PermissionResult.allMask(permissions.length);
+
+        long showRationaleMask = 0;
+        if (includeRationale && deniedMask != 0) {
+            // The rationale state follows the permission group, so only one permission per
+            // group needs to be queried...
+            PermissionGroupTable groupTable = permissionGroupTable;
+            if (groupTable == null) {
+                showRationaleMask = shouldShowPermissionRationale(permissions, deniedMask);
+            } else {
+                showRationaleMask = shouldShowPermissionRationale(permissions, groupTable.getRepresentativeMask(permissions, deniedMask));
+                showRationaleMask = groupTable.expandToGroups(permissions, showRationaleMask, deniedMask);
+            }
+        }
+
+        return new PermissionResult(permissions, grantedMask, showRationaleMask, 0, cached);
+    }
+
+    /**
+     * Get the bitset of the given permissions that aren't declared in the manifest. In debug
+     * builds an undeclared permission is a programming error, so an exception is thrown instead.
+     */
+    long getUndeclaredMask(String[] permissions) {
+        Context context = getContext();
+        if (context == null) {
+            return 0;
+        }
+
+        DeclaredPermissionIndex index = DeclaredPermissionIndex.getInstance(context);
+        long undeclaredMask = index.getUndeclaredMask(permissions);
+        if (undeclaredMask != 0 && index.isDebuggable()) {
+            String[] undeclaredPermissions = new PermissionResult(permissions, 0, 0).select(undeclaredMask);
+            throw new IllegalArgumentException("The permissions " + Arrays.toString(undeclaredPermissions) + " must be declared in AndroidManifest.xml");
+        }
+
+        return undeclaredMask;
+    }
+
+    /**
+     * The user has accepted the rationale of the given request, so request the permissions.
+     */
+    void acceptPermissionRationale(PermissionRequest permissionRequest) {
+        PermissionMetrics metrics = permissionMetrics;
+        PermissionResult result = permissionRequest.getPermissionResult();
+        if (metrics != null && result != null) {
+            metrics.record(PermissionMetrics.RATIONALE_ACCEPTED, result.getPermissions(), result.getShowRationaleMask(), permissionRequest.getRequestCode());
+        }
+
+        PermissionJournal journal = this.journal;
+        if (journal != null) {
+            journal.record(PermissionJournal.RATIONALE_ACCEPTED, permissionRequest.getRequestCode(), permissionRequest.getPermissions(), result != null && result.getPermissions() == permissionRequest.getPermissions() ? result.getGrantedMask() : 0);
+        }
+
+        requestPermission(permissionRequest);
+    }
+
     protected void requestPermission(PermissionRequest permissionRequest) {
-        int requestCode = registerCallbacks(permissionRequest);
-        requestPermission(requestCode, permissionRequest.getPermissions());
+        boolean tracing = PermissionTracing.enabled;
+        if (tracing) {
+            PermissionTracing.beginSection(PermissionTracing.REQUEST_PERMISSION);
+        }
+
+        try {
+            // If a request for the same permissions is already in flight or queued then wait for its
+            // result instead of showing the user another permission dialog. A routed request
+            // can't wait, as its result must arrive with its own request code...
+            int pendingRequestCode = permissionRequest instanceof RoutedPermissionRequest ? -1 : coalesceWithPendingRequest(permissionRequest);
+            if (pendingRequestCode != -1) {
+                PermissionJournal journal = this.journal;
+                if (journal != null) {
+                    journal.record(PermissionJournal.COALESCED, pendingRequestCode, permissionRequest.getPermissions(), 0);
+                }
+                return;
+            }
+
+            evictExpiredRequests();
+            int requestCode = registerCallbacks(permissionRequest);
+            if (requestCode == -1) {
+                // All request codes are in use, so the request waits in the overflow table
+                // until a request code is released...
+                requests.addOverflow(permissionRequest);
+                return;
+            }
+            permissionRequest.setDispatchedRequestCode(requestCode);
+            attachToHost();
+            if (tracing) {
+                // The request code is the cookie, as it is unique among the pending requests of
+                // the host and stays with the request until its section is ended...
+                PermissionTracing.beginAsyncSection(PermissionTracing.PENDING_REQUEST, requestCode);
+                permissionRequest.setPendingSectionOpen(true);
+            }
+
+            String[] dispatchedPermissions = getDispatchedPermissions(permissionRequest);
+            permissionRequest.setDispatchedPermissions(dispatchedPermissions);
+
+            PermissionJournal journal = this.journal;
+            if (journal != null) {
+                journal.record(PermissionJournal.SCHEDULED, requestCode, dispatchedPermissions, 0);
+            }
+            scheduler.schedule(requestCode, dispatchedPermissions, permissionRequest.getPriority());
+        } finally {
+            if (tracing) {
+                PermissionTracing.endSection();
+            }
+        }
     }
 
-    protected abstract void requestPermission(int requestCode, String[] permissions);
-    protected abstract boolean checkPermissions(String[] permissions);
-    protected abstract boolean shouldShowPermissionRationale(String[] permissions);
+    /**
+     * Get the permissions to send to the system. Permissions that are already granted are left
+     * out, and if a group table is set then the permissions are ordered group by group, so that
+     * the system asks about each group once.
+     */
+    private String[] getDispatchedPermissions(PermissionRequest permissionRequest) {
+        String[] permissions = permissionRequest.getPermissions();
+        PermissionResult result = permissionRequest.getPermissionResult();
+        if (result == null || result.getPermissions() != permissions || result.isGranted()) {
+            return permissions;
+        }
 
-    private void unregisterCallbacks(int requestCode) {
-        requests.delete(requestCode);
+        PermissionGroupTable groupTable = permissionGroupTable;
+        if (groupTable == null) {
+            return result.getGrantedMask() == 0 ? permissions : result.getDeniedPermissions();
+        }
+
+        return groupTable.orderByGroup(permissions, result.getDeniedMask());
     }
 
-    private int registerCallbacks(PermissionRequest permissionRequest) {
-        // Register the request with the PermissionManager before requesting the permission(s).
-        // The requests map is used by PermissionManager.handlePermissionResult() to act
-        // on the permission result, once the user replies to the request.
-        // If the activity/fragment is destroyed before the result arrives
-        // then the requests map is lost and the library will instead try to
-        // restore the callbacks from one of the static callback maps...
-        int requestCode;
-        synchronized (requestCodeLock) {
-            // If no request code was supplied by the PermissionRequestBuilder then
-            // calculate one...
-            int userSuppliedRequestCode = permissionRequest.getRequestCode();
-            if (userSuppliedRequestCode == -1) {
-                requestCode = calculateRequestCode();
-                requests.put(requestCode, permissionRequest);
-            } else if (requests.get(userSuppliedRequestCode) == null) {
-                requestCode = userSuppliedRequestCode;
-                requests.put(requestCode, permissionRequest);
+    @Nullable
+    protected Context getContext() {
+        return backend.getContext();
+    }
+
+    protected void requestPermission(int requestCode, String[] permissions) {
+        backend.requestPermissions(requestCode, permissions);
+    }
+
+    /**
+     * Check if the given permission is granted, using the permission state cache if set.
+     */
+    boolean isPermissionGranted(String permission) {
+        PermissionStateCache cache = getPermissionStateCache();
+        return cache != null ? cache.checkPermission(backend, permission) : backend.checkPermission(permission);
+    }
+
+    protected long checkPermissions(String[] permissions) {
+        return PermissionUtil.checkPermissions(backend, permissions, getPermissionStateCache());
+    }
+
+    protected long shouldShowPermissionRationale(String[] permissions, long candidateMask) {
+        return PermissionUtil.shouldShowPermissionRationale(backend, permissions, candidateMask);
+    }
+
+    /**
+     * Attach the given request to a pending request whose permissions cover all
+     * the permissions of the given request, if there is one.
+     * @return the request code of the pending request, or -1 if there is none
+     */
+    private int coalesceWithPendingRequest(PermissionRequest permissionRequest) {
+        for (int requestCode = requests.nextUsed(0); requestCode != -1; requestCode = requests.nextUsed(requestCode + 1)) {
+            PermissionRequest pendingRequest = requests.get(requestCode);
+            if (pendingRequest != null
+                    && pendingRequest != permissionRequest
+                    && pendingRequest != evictedRequest
+                    && containsAll(pendingRequest, permissionRequest)
+                    && pendingRequest.addWaiter(permissionRequest)) {
+                return requestCode;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Drop the requests that were sent to the system longer than the max pending request age
+     * ago. The check piggybacks on new requests, so no timer is needed.
+     */
+    private void evictExpiredRequests() {
+        long maxAgeNanos = maxPendingRequestAgeNanos;
+        if (maxAgeNanos > 0) {
+            dropPendingRequests(maxAgeNanos);
+        }
+    }
+
+    /**
+     * Drop the pending requests older than the given age, or all pending requests if the age is 0.
+     * <p>
+     * The age of a request counts from when it was sent to the system, so requests waiting in
+     * the queue are never too old. The request in flight is only dropped with all the others,
+     * as its dialog may still be on screen. The request code of a request dropped for its age is
+     * kept until its result arrives or the host is destroyed, so that the late result isn't
+     * delivered to a new request given the same code.
+     * <p>
+     * When all requests are dropped, the request in flight is dropped last, so that the scheduler
+     * doesn't dispatch requests that are about to be dropped anyway.
+     */
+    private int dropPendingRequests(long minAgeNanos) {
+        long now = System.nanoTime();
+        int inFlightRequestCode = scheduler.getInFlightRequestCode();
+        boolean dropInFlight = false;
+
+        // Drop the requests waiting for a request code first, so that they don't take the
+        // request codes released below...
+        int dropped = 0;
+        if (minAgeNanos == 0) {
+            for (PermissionRequest request = requests.pollOverflow(); request != null; request = requests.pollOverflow()) {
+                dropped++;
+            }
+            droppedRequestCount.addAndGet(dropped);
+        }
+
+        for (int requestCode = requests.nextUsed(0); requestCode != -1; requestCode = requests.nextUsed(requestCode + 1)) {
+            if (minAgeNanos > 0) {
+                dropped += dropExpiredRequest(requestCode, inFlightRequestCode, now - minAgeNanos);
+                continue;
+            }
+
+            if (requestCode == inFlightRequestCode) {
+                dropInFlight = true;
             } else {
-                throw new IllegalStateException("The requestCode " + userSuppliedRequestCode + " is already in use");
+                dropped += dropPendingRequest(requestCode);
             }
         }
 
-        return requestCode;
+        if (dropInFlight) {
+            dropped += dropPendingRequest(inFlightRequestCode);
+        }
+
+        return dropped;
+    }
+
+    /**
+     * Drop the request with the given request code if it was sent to the system before the given
+     * time, keeping its request code in use until its result arrives.
+     */
+    private int dropExpiredRequest(int requestCode, int inFlightRequestCode, long dispatchedBeforeNanos) {
+        PermissionRequest request = requests.get(requestCode);
+        if (request == null || request == evictedRequest || requestCode == inFlightRequestCode) {
+            return 0;
+        }
+
+        long dispatchedAtNanos = request.getDispatchedAtNanos();
+        if (dispatchedAtNanos == 0 || dispatchedAtNanos - dispatchedBeforeNanos >= 0) {
+            return 0;
+        }
+
+        if (!requests.replace(requestCode, request, evictedRequest)) {
+            return 0;
+        }
+        endPendingSection(request, requestCode);
+
+        if (request instanceof RestoredPermissionRequest) {
+            restoredRequests.remove(request.getKey(), request);
+        }
+
+        int dropped = 1 + request.completeWaiters().size();
+        droppedRequestCount.addAndGet(dropped);
+        return dropped;
+    }
+
+    private int dropPendingRequest(int requestCode) {
+        PermissionRequest request = unregisterCallbacks(requestCode);
+        if (request == null || request == evictedRequest) {
+            return 0;
+        }
+        endPendingSection(request, requestCode);
+
+        if (request instanceof RestoredPermissionRequest) {
+            restoredRequests.remove(request.getKey(), request);
+        }
+
+        int dropped = 1 + request.completeWaiters().size();
+        droppedRequestCount.addAndGet(dropped);
+        scheduler.cancel(requestCode);
+        return dropped;
+    }
+
+    /**
+     * End the async trace section begun when the given request was registered, if any. A
+     * request that took over the request code of a restored request never had one.
+     */
+    private static void endPendingSection(PermissionRequest request, int requestCode) {
+        if (request.isPendingSectionOpen()) {
+            request.setPendingSectionOpen(false);
+            PermissionTracing.endAsyncSection(PermissionTracing.PENDING_REQUEST, requestCode);
+        }
+    }
+
+    /**
+     * Follow the lifecycle of the activity hosting the PermissionManager, to refresh the observed
+     * permission states when it is resumed, to track its saved state for the UI batcher and to
+     * release the pending requests and subscriptions when it is destroyed. Attaching is deferred
+     * until the first request, subscription or batcher, as the host of a fragment isn't known
+     * before the fragment is attached.
+     */
+    private void attachToHost() {
+        if (attachedToHost.get()) {
+            return;
+        }
+
+        Context context = getContext();
+        if (context instanceof Activity && attachedToHost.compareAndSet(false, true)) {
+            HostLifecycleCallbacks.register((Activity) context, this);
+        }
     }
 
     /**
-     * The requestCode must be between 0 and 255. This method calculates a new request code by
-     * the simple method of looping through all the possible codes and returning the first one
-     * that is not in use.
-     * @return an unused request code
+     * Check if the first request covers all the permissions of the second request, using
+     * the bitmaps of their permission sets if both have one.
      */
-    private int calculateRequestCode() {
-        for (int i = 0; i < MAX_REQUEST_CODE; i++) {
-            if (requests.get(i) == null) {
-                return i;
+    private static boolean containsAll(PermissionRequest request, PermissionRequest otherRequest) {
+        PermissionSet permissionSet = request.getPermissionSet();
+        PermissionSet otherPermissionSet = otherRequest.getPermissionSet();
+        if (permissionSet != null && otherPermissionSet != null) {
+            return permissionSet.containsAll(otherPermissionSet);
+        }
+
+        return PermissionUtil.containsAll(request.getPermissions(), otherRequest.getPermissions());
+    }
+
+    private PermissionRequest unregisterCallbacks(int requestCode) {
+        PermissionRequest request = requests.release(requestCode);
+
+        // A request code has been released, so the request that has waited longest for
+        // one can be made...
+        if (request != null) {
+            PermissionRequest overflowRequest = requests.pollOverflow();
+            if (overflowRequest != null) {
+                requestPermission(overflowRequest);
             }
         }
 
-        throw new IllegalStateException("Unable to calculate request code. Try setting a request code manually by calling PermissionRequestBuilder#usingRequestCode(int)");
+        return request;
     }
 
-    private static class ActivityPermissionManager extends PermissionManager {
+    private int registerCallbacks(PermissionRequest permissionRequest) {
+        // Register the request with the PermissionManager before requesting the permission(s).
+        // The requests map is used by PermissionManager.handlePermissionResult() to act
+        // on the permission result, once the user replies to the request.
+        // If the activity/fragment is destroyed before the result arrives
+        // then the requests map is lost, unless the request has a key and the
+        // state of the PermissionManager is saved and restored by the host...
+
+        // If no request code was supplied by the PermissionRequestBuilder then
+        // calculate one...
+        int userSuppliedRequestCode = permissionRequest.getRequestCode();
+        if (userSuppliedRequestCode == -1) {
+            return calculateRequestCode(permissionRequest);
+        }
+
+        if (!requests.reserve(userSuppliedRequestCode, permissionRequest)) {
+            throw new IllegalStateException("The requestCode " + userSuppliedRequestCode + " is already in use");
+        }
+
+        return userSuppliedRequestCode;
+    }
+
+    /**
+     * Allocate the lowest request code not in use. Codes 0 to 255 are allocated first, and
+     * once they are all in use an activity borrows request codes from the process-wide
+     * {@link PermissionRequestRegistry}.
+     * @return an unused request code, or -1 if no request code is available
+     */
+    private int calculateRequestCode(PermissionRequest permissionRequest) {
+        return requests.allocate(permissionRequest);
+    }
+
+    private static class ActivityPermissionBackend implements PermissionBackend {
         private final @NonNull Activity activity;
 
-        public ActivityPermissionManager(@NonNull Activity activity) {
+        public ActivityPermissionBackend(@NonNull Activity activity) {
             this.activity = activity;
         }
 
         @Override
-        public void requestPermission(int requestCode, String[] permissions) {
-            ActivityCompat.requestPermissions(activity, permissions, requestCode);
+        public Context getContext() {
+            return activity;
         }
 
         @Override
-        protected boolean checkPermissions(String[] permissions) {
-            return PermissionUtil.checkPermissions(activity, permissions);
+        public boolean checkPermission(@NonNull String permission) {
+            return ContextCompat.checkSelfPermission(activity, permission) == PackageManager.PERMISSION_GRANTED;
         }
 
         @Override
-        protected boolean shouldShowPermissionRationale(String[] permissions) {
-            return PermissionUtil.shouldShowPermissionRationale(activity, permissions);
+        public boolean shouldShowPermissionRationale(@NonNull String permission) {
+            return ActivityCompat.shouldShowRequestPermissionRationale(activity, permission);
+        }
+
+        @Override
+        public void requestPermissions(int requestCode, @NonNull String[] permissions) {
+            ActivityCompat.requestPermissions(activity, permissions, requestCode);
+        }
+
+        /**
+         * Check if the activity accepts request codes above 255. A FragmentActivity, including an
+         * AppCompatActivity, only accepts the lower 8 bits of a permission request code, as it
+         * uses the upper bits to route the results of its fragments.
+         */
+        boolean acceptsWideRequestCodes() {
+            return !(activity instanceof FragmentActivity);
+        }
+
+        @NonNull
+        @Override
+        public Executor getCallbackExecutor() {
+            return MainThreadExecutor.INSTANCE;
         }
     }
 
-    private static class FragmentPermissionManager extends PermissionManager {
+    private static class FragmentPermissionBackend implements PermissionBackend {
         private final @NonNull Fragment fragment;
 
-        public FragmentPermissionManager(@NonNull Fragment fragment) {
+        public FragmentPermissionBackend(@NonNull Fragment fragment) {
             this.fragment = fragment;
         }
 
         @Override
-        public void requestPermission(int requestCode, String[] permissions) {
+        public Context getContext() {
+            return fragment.getActivity();
+        }
+
+        @Override
+        public boolean checkPermission(@NonNull String permission) {
+            return ContextCompat.checkSelfPermission(fragment.getActivity(), permission) == PackageManager.PERMISSION_GRANTED;
+        }
+
+        @Override
+        public boolean shouldShowPermissionRationale(@NonNull String permission) {
+            return FragmentCompat.shouldShowRequestPermissionRationale(fragment, permission);
+        }
+
+        @Override
+        public void requestPermissions(int requestCode, @NonNull String[] permissions) {
             FragmentCompat.requestPermissions(fragment, permissions, requestCode);
         }
 
+        @NonNull
         @Override
-        protected boolean checkPermissions(String[] permissions) {
-            return PermissionUtil.checkPermissions(fragment.getActivity(), permissions);
+        public Executor getCallbackExecutor() {
+            return MainThreadExecutor.INSTANCE;
+        }
+    }
+
+    /**
+     * Refreshes the observed permission states of a PermissionManager when its host activity is
+     * resumed, tracks whether the host has saved its state for the UI batcher, and releases its
+     * pending requests, subscriptions and batched effects when the host is destroyed.
+     * Both are only weakly referenced, as the callbacks are registered with the application.
+     */
+    private static class HostLifecycleCallbacks implements Application.ActivityLifecycleCallbacks {
+        private final WeakReference<Activity> host;
+        private final WeakReference<PermissionManager> permissionManager;
+
+        private HostLifecycleCallbacks(Activity host, PermissionManager permissionManager) {
+            this.host = new WeakReference<>(host);
+            this.permissionManager = new WeakReference<>(permissionManager);
+        }
+
+        /**
+         * Registering from a static method keeps the framework callback interface out of the
+         * PermissionManager itself, so it can be loaded on a plain JVM, e.g. by the benchmarks.
+         */
+        static void register(Activity host, PermissionManager permissionManager) {
+            host.getApplication().registerActivityLifecycleCallbacks(new HostLifecycleCallbacks(host, permissionManager));
         }
 
         @Override
-        protected boolean shouldShowPermissionRationale(String[] permissions) {
-            return PermissionUtil.shouldShowPermissionRationale(fragment, permissions);
+        public void onActivityDestroyed(Activity activity) {
+            Activity hostActivity = host.get();
+            if (hostActivity != null && hostActivity != activity) {
+                return;
+            }
+
+            activity.getApplication().unregisterActivityLifecycleCallbacks(this);
+            PermissionManager manager = permissionManager.get();
+            if (manager != null) {
+                manager.releasePendingRequests();
+                manager.stateTracker.clear();
+                manager.attachedToHost.set(false);
+
+                PermissionUiBatcher uiBatcher = manager.uiBatcher;
+                if (uiBatcher != null) {
+                    uiBatcher.clear();
+                }
+            }
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+            setStateSaved(activity, false);
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+            setStateSaved(activity, false);
+            PermissionManager manager = permissionManager.get();
+            if (activity == host.get() && manager != null && !manager.stateTracker.isEmpty()) {
+                manager.refreshPermissionStates();
+            }
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+            setStateSaved(activity, true);
+        }
+
+        /**
+         * Tell the batcher of the PermissionManager whether its host has saved its state, so
+         * that its fragment transactions don't throw after the state is saved.
+         */
+        private void setStateSaved(Activity activity, boolean stateSaved) {
+            PermissionManager manager = permissionManager.get();
+            PermissionUiBatcher uiBatcher = manager != null ? manager.uiBatcher : null;
+            if (activity == host.get() && uiBatcher != null) {
+                uiBatcher.setStateSaved(stateSaved);
+            }
+        }
+    }
+
+    private static class MainThreadExecutor implements Executor {
+        private static final MainThreadExecutor INSTANCE = new MainThreadExecutor();
+
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            handler.post(command);
         }
     }
 }
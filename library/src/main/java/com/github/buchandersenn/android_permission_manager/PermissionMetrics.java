@@ -0,0 +1,362 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import android.support.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records how permission requests play out: how long the user takes to answer the permission
+ * dialog, and how often each permission - and each request code - is granted, denied, shown a
+ * rationale and has its rationale accepted. The request codes a PermissionManager borrows once
+ * its own 256 codes are in use are counted per page of 256 codes, instead of per request code.
+ * <p>
+ * The metrics are enabled by calling {@link PermissionManager#setPermissionMetrics(PermissionMetrics)},
+ * and a single instance may be shared by several PermissionManagers. Recording is lock-free,
+ * uses striped counters to keep contention low, and doesn't allocate once a permission has been
+ * seen. Call {@link #snapshot()} to get an immutable copy of the metrics, e.g. to forward them
+ * to a telemetry pipeline.
+ */
+public class PermissionMetrics {
+    public static final int GRANTED = 0;
+    public static final int DENIED = 1;
+    public static final int RATIONALE = 2;
+    public static final int RATIONALE_ACCEPTED = 3;
+
+    private static final int OUTCOME_COUNT = 4;
+
+    /**
+     * The latency histogram has one bucket per power of two milliseconds, bucket i counting
+     * latencies below 2^i ms. The last bucket counts everything longer.
+     */
+    public static final int LATENCY_BUCKET_COUNT = 24;
+
+    private final ConcurrentHashMap<String, StripedCounters> permissionCounters = new ConcurrentHashMap<>();
+    private final AtomicLongArray requestCodeCounters = new AtomicLongArray(RequestCodeAllocator.REQUEST_CODE_COUNT * OUTCOME_COUNT);
+    private final AtomicLongArray pageCounters = new AtomicLongArray(PermissionRequestRegistry.PAGE_COUNT * OUTCOME_COUNT);
+
+    private final AtomicLongArray latencyBuckets = new AtomicLongArray(LATENCY_BUCKET_COUNT);
+    private final StripedCounters latencyTotals = new StripedCounters(2);
+    private volatile long maxLatencyNanos;
+
+    /**
+     * Record the given outcome for each of the permissions in the given mask, both for the
+     * permission itself and for the request code - or for the page of the request code, if it is
+     * a borrowed request code. Request codes outside the range of generated request codes are
+     * only recorded per permission.
+     */
+    void record(int outcome, @NonNull String[] permissions, long mask, int requestCode) {
+        mask &= PermissionResult.allMask(permissions.length);
+        if (mask == 0) {
+            return;
+        }
+
+        for (long remaining = mask; remaining != 0; remaining &= remaining - 1) {
+            countersFor(permissions[Long.numberOfTrailingZeros(remaining)]).increment(outcome);
+        }
+
+        if (requestCode >= 0 && requestCode < RequestCodeAllocator.REQUEST_CODE_COUNT) {
+            requestCodeCounters.addAndGet(requestCode * OUTCOME_COUNT + outcome, Long.bitCount(mask));
+        } else if (requestCode >= 0 && requestCode <= PermissionRequestRegistry.MAX_REQUEST_CODE) {
+            int page = requestCode / PermissionRequestRegistry.PAGE_SIZE;
+            pageCounters.addAndGet(page * OUTCOME_COUNT + outcome, Long.bitCount(mask));
+        }
+    }
+
+    /**
+     * Record the time between a request and its result.
+     */
+    void recordLatency(long latencyNanos) {
+        if (latencyNanos < 0) {
+            return;
+        }
+
+        long latencyMillis = latencyNanos / 1000000L;
+        int bucket = Math.min(Long.SIZE - Long.numberOfLeadingZeros(latencyMillis), LATENCY_BUCKET_COUNT - 1);
+        latencyBuckets.incrementAndGet(bucket);
+        latencyTotals.add(0, 1);
+        latencyTotals.add(1, latencyNanos);
+
+        // A new maximum is rare, so only then is the lock taken...
+        if (latencyNanos > maxLatencyNanos) {
+            synchronized (this) {
+                if (latencyNanos > maxLatencyNanos) {
+                    maxLatencyNanos = latencyNanos;
+                }
+            }
+        }
+    }
+
+    private StripedCounters countersFor(String permission) {
+        StripedCounters counters = permissionCounters.get(permission);
+        if (counters == null) {
+            StripedCounters newCounters = new StripedCounters(OUTCOME_COUNT);
+            counters = permissionCounters.putIfAbsent(permission, newCounters);
+            if (counters == null) {
+                counters = newCounters;
+            }
+        }
+
+        return counters;
+    }
+
+    /**
+     * Get an immutable copy of the metrics recorded so far.
+     */
+    @NonNull
+    public Snapshot snapshot() {
+        Map<String, Counts> permissions = new LinkedHashMap<>();
+        for (Map.Entry<String, StripedCounters> entry : permissionCounters.entrySet()) {
+            StripedCounters counters = entry.getValue();
+            permissions.put(entry.getKey(), new Counts(counters.sum(GRANTED), counters.sum(DENIED), counters.sum(RATIONALE), counters.sum(RATIONALE_ACCEPTED)));
+        }
+
+        Map<Integer, Counts> requestCodes = snapshotCounters(requestCodeCounters, 0, RequestCodeAllocator.REQUEST_CODE_COUNT);
+        Map<Integer, Counts> pages = snapshotCounters(pageCounters, 1, PermissionRequestRegistry.PAGE_COUNT);
+
+        long[] buckets = new long[LATENCY_BUCKET_COUNT];
+        for (int i = 0; i < LATENCY_BUCKET_COUNT; i++) {
+            buckets[i] = latencyBuckets.get(i);
+        }
+
+        return new Snapshot(permissions, requestCodes, pages, buckets, latencyTotals.sum(0), latencyTotals.sum(1), maxLatencyNanos);
+    }
+
+    /**
+     * Get the counts of the keys from the given start to the given end, leaving out the keys
+     * that haven't been counted.
+     */
+    private static Map<Integer, Counts> snapshotCounters(AtomicLongArray counters, int start, int end) {
+        Map<Integer, Counts> snapshot = new LinkedHashMap<>();
+        for (int key = start; key < end; key++) {
+            int offset = key * OUTCOME_COUNT;
+            Counts counts = new Counts(counters.get(offset + GRANTED), counters.get(offset + DENIED), counters.get(offset + RATIONALE), counters.get(offset + RATIONALE_ACCEPTED));
+            if (counts.getTotal() > 0) {
+                snapshot.put(key, counts);
+            }
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Clear all recorded metrics.
+     */
+    public void reset() {
+        permissionCounters.clear();
+        for (int i = 0; i < requestCodeCounters.length(); i++) {
+            requestCodeCounters.set(i, 0);
+        }
+        for (int i = 0; i < pageCounters.length(); i++) {
+            pageCounters.set(i, 0);
+        }
+        for (int i = 0; i < LATENCY_BUCKET_COUNT; i++) {
+            latencyBuckets.set(i, 0);
+        }
+        latencyTotals.reset();
+        synchronized (this) {
+            maxLatencyNanos = 0;
+        }
+    }
+
+    /**
+     * The counts of each outcome, for a single permission, request code or page of borrowed
+     * request codes. The counts of a request code are the sum of the counts of the permissions
+     * requested with it.
+     */
+    public static final class Counts {
+        private final long granted;
+        private final long denied;
+        private final long rationale;
+        private final long rationaleAccepted;
+
+        Counts(long granted, long denied, long rationale, long rationaleAccepted) {
+            this.granted = granted;
+            this.denied = denied;
+            this.rationale = rationale;
+            this.rationaleAccepted = rationaleAccepted;
+        }
+
+        public long getGranted() {
+            return granted;
+        }
+
+        public long getDenied() {
+            return denied;
+        }
+
+        public long getRationale() {
+            return rationale;
+        }
+
+        public long getRationaleAccepted() {
+            return rationaleAccepted;
+        }
+
+        long getTotal() {
+            return granted + denied + rationale + rationaleAccepted;
+        }
+
+        @Override
+        public String toString() {
+            return "granted=" + granted + ", denied=" + denied + ", rationale=" + rationale + ", rationaleAccepted=" + rationaleAccepted;
+        }
+    }
+
+    /**
+     * An immutable copy of the metrics at a point in time.
+     */
+    public static final class Snapshot {
+        private final Map<String, Counts> permissions;
+        private final Map<Integer, Counts> requestCodes;
+        private final Map<Integer, Counts> pages;
+        private final long[] latencyBuckets;
+        private final long latencyCount;
+        private final long latencyTotalNanos;
+        private final long maxLatencyNanos;
+
+        Snapshot(Map<String, Counts> permissions, Map<Integer, Counts> requestCodes, Map<Integer, Counts> pages, long[] latencyBuckets, long latencyCount, long latencyTotalNanos, long maxLatencyNanos) {
+            this.permissions = Collections.unmodifiableMap(permissions);
+            this.requestCodes = Collections.unmodifiableMap(requestCodes);
+            this.pages = Collections.unmodifiableMap(pages);
+            this.latencyBuckets = latencyBuckets;
+            this.latencyCount = latencyCount;
+            this.latencyTotalNanos = latencyTotalNanos;
+            this.maxLatencyNanos = maxLatencyNanos;
+        }
+
+        /**
+         * Get the counts of each permission seen.
+         */
+        @NonNull
+        public Map<String, Counts> getPermissions() {
+            return permissions;
+        }
+
+        /**
+         * Get the counts of each request code seen, from 0 to 255.
+         */
+        @NonNull
+        public Map<Integer, Counts> getRequestCodes() {
+            return requestCodes;
+        }
+
+        /**
+         * Get the counts of the borrowed request codes seen, per page. Page n holds the request
+         * codes from n * 256 to n * 256 + 255.
+         */
+        @NonNull
+        public Map<Integer, Counts> getPages() {
+            return pages;
+        }
+
+        /**
+         * Get the number of results with a latency in the given bucket of the histogram.
+         */
+        public long getLatencyBucketCount(int bucket) {
+            return latencyBuckets[bucket];
+        }
+
+        /**
+         * Get the exclusive upper bound, in milliseconds, of the given bucket of the histogram,
+         * or Long.MAX_VALUE for the last bucket.
+         */
+        public static long getLatencyBucketUpperBoundMillis(int bucket) {
+            return bucket == LATENCY_BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+        }
+
+        public long getLatencyCount() {
+            return latencyCount;
+        }
+
+        public long getAverageLatencyMillis() {
+            return latencyCount == 0 ? 0 : latencyTotalNanos / latencyCount / 1000000L;
+        }
+
+        public long getMaxLatencyMillis() {
+            return maxLatencyNanos / 1000000L;
+        }
+
+        /**
+         * Get the latency below which the given fraction of the results were delivered, e.g.
+         * 0.5 for the median, as the upper bound of the histogram bucket in milliseconds.
+         */
+        public long getLatencyPercentileMillis(double fraction) {
+            long threshold = (long) Math.ceil(latencyCount * fraction);
+            long seen = 0;
+            for (int bucket = 0; bucket < LATENCY_BUCKET_COUNT; bucket++) {
+                seen += latencyBuckets[bucket];
+                if (seen >= threshold && seen > 0) {
+                    return getLatencyBucketUpperBoundMillis(bucket);
+                }
+            }
+
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("PermissionMetrics{");
+            builder.append("latency: count=").append(latencyCount)
+                    .append(", avg=").append(getAverageLatencyMillis()).append("ms")
+                    .append(", p50<").append(getLatencyPercentileMillis(0.5)).append("ms")
+                    .append(", p90<").append(getLatencyPercentileMillis(0.9)).append("ms")
+                    .append(", max=").append(getMaxLatencyMillis()).append("ms");
+            for (Map.Entry<String, Counts> entry : permissions.entrySet()) {
+                builder.append("; ").append(entry.getKey()).append(": ").append(entry.getValue());
+            }
+            for (Map.Entry<Integer, Counts> entry : requestCodes.entrySet()) {
+                builder.append("; requestCode ").append(entry.getKey()).append(": ").append(entry.getValue());
+            }
+            for (Map.Entry<Integer, Counts> entry : pages.entrySet()) {
+                builder.append("; page ").append(entry.getKey()).append(": ").append(entry.getValue());
+            }
+
+            return builder.append('}').toString();
+        }
+    }
+
+    /**
+     * A fixed number of counters, each spread over several stripes so that threads updating
+     * the same counter rarely contend. The stripes are padded apart to avoid false sharing.
+     */
+    private static final class StripedCounters {
+        private static final int STRIPES = 4;
+        private static final int PADDING = 8;
+
+        private final int stride;
+        private final AtomicLongArray cells;
+
+        StripedCounters(int counterCount) {
+            this.stride = ((counterCount + PADDING - 1) / PADDING) * PADDING;
+            this.cells = new AtomicLongArray(STRIPES * stride);
+        }
+
+        void increment(int counter) {
+            add(counter, 1);
+        }
+
+        void add(int counter, long delta) {
+            int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+            cells.addAndGet(stripe * stride + counter, delta);
+        }
+
+        long sum(int counter) {
+            long sum = 0;
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                sum += cells.get(stripe * stride + counter);
+            }
+
+            return sum;
+        }
+
+        void reset() {
+            for (int i = 0; i < cells.length(); i++) {
+                cells.set(i, 0);
+            }
+        }
+    }
+}
@@ -1,32 +1,70 @@
 package com.github.buchandersenn.android_permission_manager;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.github.buchandersenn.android_permission_manager.callbacks.OnPermissionDeniedCallback;
 import com.github.buchandersenn.android_permission_manager.callbacks.OnPermissionGrantedCallback;
+import com.github.buchandersenn.android_permission_manager.callbacks.OnPermissionPartiallyGrantedCallback;
 import com.github.buchandersenn.android_permission_manager.callbacks.OnPermissionShowRationaleCallback;
+import com.github.buchandersenn.android_permission_manager.callbacks.PermissionUiBatcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class PermissionRequest {
     private final @NonNull PermissionManager permissionManager;
 
     private final @NonNull String[] permissions;
     private final int requestCode;
+    private final int priority;
 
     protected final OnPermissionGrantedCallback grantedCallback;
     protected final OnPermissionDeniedCallback deniedCallback;
     protected final OnPermissionShowRationaleCallback showRationaleCallback;
+    protected final OnPermissionPartiallyGrantedCallback partiallyGrantedCallback;
+
+    private volatile PermissionResult permissionResult;
+    private volatile String[] dispatchedPermissions;
+    private volatile long requestedAtNanos;
+    private volatile long dispatchedAtNanos;
+    private volatile boolean pendingSectionOpen;
+    private volatile int dispatchedRequestCode = -1;
+    private volatile String key;
+    private volatile PermissionSet permissionSet;
+
+    private List<PermissionRequest> waiters;
+    private boolean completed;
 
     public PermissionRequest(@NonNull PermissionManager permissionManager, @NonNull String[] permissions, int requestCode, OnPermissionGrantedCallback grantedCallback, OnPermissionDeniedCallback deniedCallback, OnPermissionShowRationaleCallback showRationaleCallback) {
+        this(permissionManager, permissions, requestCode, PermissionRequestScheduler.PRIORITY_DEFAULT, grantedCallback, deniedCallback, showRationaleCallback, null);
+    }
+
+    public PermissionRequest(@NonNull PermissionManager permissionManager, @NonNull String[] permissions, int requestCode, int priority, OnPermissionGrantedCallback grantedCallback, OnPermissionDeniedCallback deniedCallback, OnPermissionShowRationaleCallback showRationaleCallback, OnPermissionPartiallyGrantedCallback partiallyGrantedCallback) {
         this.permissionManager = permissionManager;
         this.permissions = permissions;
         this.requestCode = requestCode;
+        this.priority = priority;
         this.grantedCallback = grantedCallback;
         this.deniedCallback = deniedCallback;
         this.showRationaleCallback = showRationaleCallback;
+        this.partiallyGrantedCallback = partiallyGrantedCallback;
     }
 
     public void acceptPermissionRationale() {
-        permissionManager.requestPermission(this);
+        permissionManager.acceptPermissionRationale(this);
+    }
+
+    /**
+     * Create a new request for the same permissions, with the same settings and callbacks.
+     */
+    @NonNull
+    PermissionRequest copy() {
+        PermissionRequest copy = new PermissionRequest(permissionManager, permissions, requestCode, priority, grantedCallback, deniedCallback, showRationaleCallback, partiallyGrantedCallback);
+        copy.setPermissionSet(permissionSet);
+        copy.setKey(key);
+        return copy;
     }
 
     @NonNull
@@ -38,21 +76,224 @@ public class PermissionRequest {
         return requestCode;
     }
 
+    protected int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Get the most recent evaluation of the requested permissions, e.g. to find out which
+     * permissions need a rationale or were denied. Returns null if the request hasn't
+     * been evaluated yet.
+     */
+    @Nullable
+    public PermissionResult getPermissionResult() {
+        return permissionResult;
+    }
+
+    protected void setPermissionResult(PermissionResult permissionResult) {
+        this.permissionResult = permissionResult;
+    }
+
+    /**
+     * Get the permissions actually sent to the system, i.e. the permissions of the request
+     * that weren't already granted.
+     */
+    @NonNull
+    String[] getDispatchedPermissions() {
+        String[] dispatched = dispatchedPermissions;
+        return dispatched != null ? dispatched : permissions;
+    }
+
+    void setDispatchedPermissions(String[] dispatchedPermissions) {
+        this.dispatchedPermissions = dispatchedPermissions;
+    }
+
+    /**
+     * Get the interned set of the permissions of the request, or null if the request was created
+     * from a permission array. The permissions of the request are the permissions of the set.
+     */
+    @Nullable
+    PermissionSet getPermissionSet() {
+        return permissionSet;
+    }
+
+    void setPermissionSet(@Nullable PermissionSet permissionSet) {
+        this.permissionSet = permissionSet;
+    }
+
+    /**
+     * Get the stable key used to rebind the request to its result after the host has been
+     * recreated, or null if the request has no key.
+     */
+    @Nullable
+    String getKey() {
+        return key;
+    }
+
+    void setKey(@Nullable String key) {
+        this.key = key;
+    }
+
+    /**
+     * Get the request code the permissions were requested with - either the code supplied to
+     * the builder or a generated one - or -1 if they haven't been requested.
+     */
+    int getDispatchedRequestCode() {
+        return dispatchedRequestCode;
+    }
+
+    void setDispatchedRequestCode(int dispatchedRequestCode) {
+        this.dispatchedRequestCode = dispatchedRequestCode;
+    }
+
+    /**
+     * Get the System.nanoTime() at which the request was made, or 0 if it wasn't recorded.
+     */
+    long getRequestedAtNanos() {
+        return requestedAtNanos;
+    }
+
+    void setRequestedAtNanos(long requestedAtNanos) {
+        this.requestedAtNanos = requestedAtNanos;
+    }
+
+    /**
+     * Get the System.nanoTime() at which the permissions were sent to the system, or 0 if the
+     * request is still waiting to be dispatched.
+     */
+    long getDispatchedAtNanos() {
+        return dispatchedAtNanos;
+    }
+
+    void setDispatchedAtNanos(long dispatchedAtNanos) {
+        this.dispatchedAtNanos = dispatchedAtNanos;
+    }
+
+    /**
+     * Check if an async trace section was begun for the request while it is pending, using its
+     * dispatched request code as the cookie.
+     */
+    boolean isPendingSectionOpen() {
+        return pendingSectionOpen;
+    }
+
+    void setPendingSectionOpen(boolean pendingSectionOpen) {
+        this.pendingSectionOpen = pendingSectionOpen;
+    }
+
+    /**
+     * Attach a request that should receive the result of this request, instead of being
+     * requested separately. Returns false if the result of this request has already been
+     * dispatched, in which case the other request must be requested on its own.
+     */
+    synchronized boolean addWaiter(@NonNull PermissionRequest waiter) {
+        if (completed) {
+            return false;
+        }
+
+        if (waiters == null) {
+            waiters = new ArrayList<>(2);
+        }
+        waiters.add(waiter);
+        return true;
+    }
+
+    /**
+     * Mark the request as completed and get the requests waiting for its result.
+     */
+    @NonNull
+    synchronized List<PermissionRequest> completeWaiters() {
+        completed = true;
+        List<PermissionRequest> completedWaiters = waiters;
+        waiters = null;
+        return completedWaiters != null ? completedWaiters : Collections.<PermissionRequest>emptyList();
+    }
+
     protected void fireOnPermissionGrantedCallback() {
-        if (grantedCallback != null) {
-            grantedCallback.onPermissionGranted();
+        boolean tracing = PermissionTracing.enabled;
+        if (tracing) {
+            PermissionTracing.beginSection(PermissionTracing.FIRE_GRANTED);
+        }
+        PermissionUiBatcher uiBatcher = permissionManager.getUiBatcher();
+        PermissionUiBatcher previousUiBatcher = uiBatcher != null ? PermissionUiBatcher.enter(uiBatcher) : null;
+
+        try {
+            journal(PermissionJournal.CALLBACK_GRANTED);
+            if (grantedCallback != null) {
+                grantedCallback.onPermissionGranted();
+            }
+        } finally {
+            if (uiBatcher != null) {
+                PermissionUiBatcher.exit(previousUiBatcher);
+            }
+            if (tracing) {
+                PermissionTracing.endSection();
+            }
         }
     }
 
+    /**
+     * Fire the denied callback - or the partially granted callback, if one is registered and
+     * some, but not all, of the permissions were granted.
+     */
     protected void fireOnPermissionDeniedCallback() {
-        if (deniedCallback != null) {
-            deniedCallback.onPermissionDenied();
+        boolean tracing = PermissionTracing.enabled;
+        if (tracing) {
+            PermissionTracing.beginSection(PermissionTracing.FIRE_DENIED);
+        }
+        PermissionUiBatcher uiBatcher = permissionManager.getUiBatcher();
+        PermissionUiBatcher previousUiBatcher = uiBatcher != null ? PermissionUiBatcher.enter(uiBatcher) : null;
+
+        try {
+            PermissionResult result = permissionResult;
+            if (partiallyGrantedCallback != null && result != null && result.getGrantedMask() != 0) {
+                journal(PermissionJournal.CALLBACK_PARTIALLY_GRANTED);
+                partiallyGrantedCallback.onPermissionPartiallyGranted(result.getGrantedPermissions(), result.getDeniedPermissions());
+                return;
+            }
+
+            journal(PermissionJournal.CALLBACK_DENIED);
+            if (deniedCallback != null) {
+                deniedCallback.onPermissionDenied();
+            }
+        } finally {
+            if (uiBatcher != null) {
+                PermissionUiBatcher.exit(previousUiBatcher);
+            }
+            if (tracing) {
+                PermissionTracing.endSection();
+            }
         }
     }
 
     protected void fireOnPermissionShowRationaleCallback() {
-        if (showRationaleCallback != null) {
-            showRationaleCallback.onPermissionShowRationale(this);
+        boolean tracing = PermissionTracing.enabled;
+        if (tracing) {
+            PermissionTracing.beginSection(PermissionTracing.FIRE_SHOW_RATIONALE);
+        }
+        PermissionUiBatcher uiBatcher = permissionManager.getUiBatcher();
+        PermissionUiBatcher previousUiBatcher = uiBatcher != null ? PermissionUiBatcher.enter(uiBatcher) : null;
+
+        try {
+            journal(PermissionJournal.CALLBACK_SHOW_RATIONALE);
+            if (showRationaleCallback != null) {
+                showRationaleCallback.onPermissionShowRationale(this);
+            }
+        } finally {
+            if (uiBatcher != null) {
+                PermissionUiBatcher.exit(previousUiBatcher);
+            }
+            if (tracing) {
+                PermissionTracing.endSection();
+            }
+        }
+    }
+
+    private void journal(int event) {
+        PermissionJournal journal = permissionManager.getJournal();
+        if (journal != null) {
+            PermissionResult result = permissionResult;
+            journal.record(event, dispatchedRequestCode, permissions, result != null && result.getPermissions() == permissions ? result.getGrantedMask() : 0);
         }
     }
 }
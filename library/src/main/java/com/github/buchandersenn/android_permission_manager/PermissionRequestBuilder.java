@@ -1,23 +1,32 @@
 package com.github.buchandersenn.android_permission_manager;
 
+import android.os.Bundle;
 import android.support.annotation.NonNull;
 
 import com.github.buchandersenn.android_permission_manager.callbacks.OnPermissionCallback;
 import com.github.buchandersenn.android_permission_manager.callbacks.OnPermissionDeniedCallback;
 import com.github.buchandersenn.android_permission_manager.callbacks.OnPermissionGrantedCallback;
+import com.github.buchandersenn.android_permission_manager.callbacks.OnPermissionPartiallyGrantedCallback;
 import com.github.buchandersenn.android_permission_manager.callbacks.OnPermissionShowRationaleCallback;
 
+import java.util.concurrent.Executor;
+
 public class PermissionRequestBuilder {
     private final @NonNull PermissionManager manager;
+    private final @NonNull PermissionSet permissionSet;
     private final @NonNull String[] permissions;
     private int requestCode = -1;
+    private int priority = PermissionRequestScheduler.PRIORITY_DEFAULT;
+    private String key;
 
     private OnPermissionGrantedCallback grantedCallback;
     private OnPermissionDeniedCallback deniedCallback;
     private OnPermissionShowRationaleCallback showRationaleCallback;
+    private OnPermissionPartiallyGrantedCallback partiallyGrantedCallback;
 
-    PermissionRequestBuilder(@NonNull PermissionManager manager, @NonNull String[] permissions) {
+    PermissionRequestBuilder(@NonNull PermissionManager manager, @NonNull PermissionSet permissionSet, @NonNull String[] permissions) {
         this.manager = manager;
+        this.permissionSet = permissionSet;
         this.permissions = permissions;
     }
 
@@ -26,6 +35,27 @@ public class PermissionRequestBuilder {
         return this;
     }
 
+    /**
+     * Set the priority of the request. If other permission requests are waiting to be shown
+     * to the user, requests with a higher priority are shown first.
+     */
+    public PermissionRequestBuilder usingPriority(int priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     * Give the request a stable key, unique among the requests of the host. If the host is
+     * recreated while the permission dialog is showing - after a configuration change or after
+     * the process was killed - the result is delivered to the request with the same key made by
+     * the recreated host, instead of showing the dialog again. This requires saving and restoring
+     * the state of the PermissionManager, see {@link PermissionManager#onSaveInstanceState(Bundle)}.
+     */
+    public PermissionRequestBuilder usingKey(@NonNull String key) {
+        this.key = key;
+        return this;
+    }
+
     public PermissionRequestBuilder onCallback(OnPermissionCallback callback) {
         this.grantedCallback = callback;
         this.deniedCallback = callback;
@@ -48,13 +78,53 @@ public class PermissionRequestBuilder {
         return this;
     }
 
+    public PermissionRequestBuilder onPermissionPartiallyGranted(OnPermissionPartiallyGrantedCallback callback) {
+        this.partiallyGrantedCallback = callback;
+        return this;
+    }
+
     public void request() {
-        PermissionRequest permissionRequest = new PermissionRequest(manager, permissions, requestCode, grantedCallback, deniedCallback, showRationaleCallback);
+        PermissionRequest permissionRequest = createPermissionRequest();
         manager.request(permissionRequest);
     }
 
     public void check() {
-        PermissionRequest permissionRequest = new PermissionRequest(manager, permissions, requestCode, grantedCallback, deniedCallback, showRationaleCallback);
+        PermissionRequest permissionRequest = createPermissionRequest();
         manager.check(permissionRequest);
     }
-}
\ No newline at end of file
+
+    /**
+     * Like {@link #request()}, but the permissions are evaluated on the given executor instead
+     * of the calling thread. The callbacks are fired on the main thread.
+     */
+    public PermissionFuture requestAsync(@NonNull Executor executor) {
+        PermissionRequest permissionRequest = createPermissionRequest();
+        return manager.requestAsync(permissionRequest, executor);
+    }
+
+    /**
+     * Like {@link #check()}, but the permissions are evaluated on the given executor instead
+     * of the calling thread. The callbacks are fired on the main thread.
+     */
+    public PermissionFuture checkAsync(@NonNull Executor executor) {
+        PermissionRequest permissionRequest = createPermissionRequest();
+        return manager.checkAsync(permissionRequest, executor);
+    }
+
+    /**
+     * Build the request once, so that it can be checked or requested repeatedly. Checking a
+     * prepared request doesn't allocate once the state of the permissions is known, which makes
+     * it suitable for checks done on every frame or every bind of a list item.
+     */
+    @NonNull
+    public PreparedPermissionRequest prepare() {
+        return new PreparedPermissionRequest(manager, createPermissionRequest());
+    }
+
+    private PermissionRequest createPermissionRequest() {
+        PermissionRequest permissionRequest = new PermissionRequest(manager, permissions, requestCode, priority, grantedCallback, deniedCallback, showRationaleCallback, partiallyGrantedCallback);
+        permissionRequest.setPermissionSet(permissionSet);
+        permissionRequest.setKey(key);
+        return permissionRequest;
+    }
+}
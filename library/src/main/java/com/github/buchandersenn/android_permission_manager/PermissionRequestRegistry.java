@@ -0,0 +1,341 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The process-wide registry of the request codes used by PermissionManagers.
+ * <p>
+ * Every PermissionManager has its own 256 request codes, 0 to 255, which is all a fragment can
+ * use. A framework activity can use 16 bit request codes, so once an activity's own codes are in
+ * use its PermissionManager borrows a page of 256 more codes from the registry. The support
+ * library's FragmentActivity only accepts 8 bit request codes, so its PermissionManager never
+ * borrows. A page is identified by
+ * a host id between 1 and 255, and the request code of a request on a page is the host id in the
+ * upper 8 bits and the local sequence of the request in the lower 8 bits. The pages are shared
+ * by all PermissionManagers in the process, so two PermissionManagers of the same activity never
+ * use the same borrowed request code, and each can tell its own results from the results of the
+ * other. Looking up a request code is a constant time operation: the host id selects the page
+ * and the local sequence selects the request on the page.
+ * <p>
+ * If no request code is available the request is kept in an overflow table until a request
+ * code is released.
+ * <p>
+ * The registry only keeps weak references to the PermissionManagers, so a page is reclaimed
+ * once the PermissionManager owning it is garbage collected, or when its host is destroyed.
+ */
+final class PermissionRequestRegistry {
+    static final int PAGE_SIZE = RequestCodeAllocator.REQUEST_CODE_COUNT;
+    static final int PAGE_COUNT = 256;
+    static final int MAX_REQUEST_CODE = PAGE_COUNT * PAGE_SIZE - 1;
+
+    private static final int LOCAL_BITS = 8;
+    private static final int LOCAL_MASK = PAGE_SIZE - 1;
+
+    private static final PermissionRequestRegistry INSTANCE = new PermissionRequestRegistry();
+
+    // Page 0 is never borrowed, as codes 0 to 255 belong to every PermissionManager...
+    private final AtomicReferenceArray<WeakReference<Host>> pageOwners = new AtomicReferenceArray<>(PAGE_COUNT);
+
+    private PermissionRequestRegistry() {
+    }
+
+    static PermissionRequestRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Register a new host, i.e. the request codes of a PermissionManager.
+     *
+     * @param wideRequestCodes true if the host can use 16 bit request codes, false if it
+     *                         can only use 8 bit request codes
+     */
+    @NonNull
+    Host register(boolean wideRequestCodes) {
+        return new Host(this, wideRequestCodes);
+    }
+
+    /**
+     * Borrow the given page for the given host, if the page is free.
+     */
+    private boolean acquirePage(int page, Host host) {
+        WeakReference<Host> ownerReference = pageOwners.get(page);
+        while (ownerReference == null || ownerReference.get() == null) {
+            if (pageOwners.compareAndSet(page, ownerReference, host.reference)) {
+                return true;
+            }
+            ownerReference = pageOwners.get(page);
+        }
+
+        return ownerReference.get() == host;
+    }
+
+    private void releasePage(int page, Host host) {
+        pageOwners.compareAndSet(page, host.reference, null);
+    }
+
+    /**
+     * Borrow the first free page for the given host.
+     *
+     * @return the borrowed page, or -1 if all pages are in use
+     */
+    private int acquireFreePage(Host host) {
+        for (int page = 1; page < PAGE_COUNT; page++) {
+            WeakReference<Host> ownerReference = pageOwners.get(page);
+            if ((ownerReference == null || ownerReference.get() == null) && acquirePage(page, host)) {
+                return page;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * The request codes of a single PermissionManager: its own codes 0 to 255, the pages it has
+     * borrowed from the registry and the requests waiting for a request code. The methods mirror
+     * those of {@link RequestCodeAllocator}, and are safe to call from any thread.
+     * <p>
+     * Allocating on the own codes and on the borrowed pages doesn't lock, but borrowing a page
+     * and giving it back is done holding the lock of the host. A page is given back only once its
+     * allocator is closed, so that a request can't be allocated on a page the host no longer owns.
+     */
+    static class Host {
+        private final PermissionRequestRegistry registry;
+        private final boolean wideRequestCodes;
+        private final WeakReference<Host> reference = new WeakReference<>(this);
+
+        private final RequestCodeAllocator<PermissionRequest> ownCodes = new RequestCodeAllocator<>();
+        private final ConcurrentLinkedQueue<PermissionRequest> overflow = new ConcurrentLinkedQueue<>();
+
+        // Only created once the own codes are all in use, which is rare...
+        private volatile AtomicReferenceArray<RequestCodeAllocator<PermissionRequest>> pages;
+
+        private Host(PermissionRequestRegistry registry, boolean wideRequestCodes) {
+            this.registry = registry;
+            this.wideRequestCodes = wideRequestCodes;
+        }
+
+        /**
+         * Allocate the lowest unused request code - preferring the own request codes, then the
+         * borrowed pages, then a newly borrowed page - and register the given request for it.
+         *
+         * @return the allocated request code, or -1 if no request code is available
+         */
+        int allocate(PermissionRequest request) {
+            int requestCode = ownCodes.allocate(request);
+            if (requestCode != -1 || !wideRequestCodes) {
+                return requestCode;
+            }
+
+            AtomicReferenceArray<RequestCodeAllocator<PermissionRequest>> pages = getPages();
+            for (int page = 1; page < PAGE_COUNT; page++) {
+                RequestCodeAllocator<PermissionRequest> allocator = pages.get(page);
+                if (allocator != null) {
+                    int localCode = allocator.allocate(request);
+                    if (localCode != -1) {
+                        return page << LOCAL_BITS | localCode;
+                    }
+                }
+            }
+
+            synchronized (this) {
+                int page = registry.acquireFreePage(this);
+                if (page == -1) {
+                    return -1;
+                }
+
+                int localCode = getPage(page).allocate(request);
+                return localCode != -1 ? page << LOCAL_BITS | localCode : -1;
+            }
+        }
+
+        /**
+         * Reserve the given request code and register the given request for it. A borrowed
+         * request code can only be reserved if its page is free or already borrowed by this host.
+         *
+         * @return true if the request code was reserved, false if it is already in use
+         */
+        boolean reserve(int requestCode, PermissionRequest request) {
+            if (requestCode < PAGE_SIZE) {
+                return ownCodes.reserve(requestCode, request);
+            }
+
+            checkRange(requestCode);
+            int page = requestCode >>> LOCAL_BITS;
+            synchronized (this) {
+                if (!registry.acquirePage(page, this)) {
+                    return false;
+                }
+
+                return getPage(page).reserve(requestCode & LOCAL_MASK, request);
+            }
+        }
+
+        @Nullable
+        PermissionRequest get(int requestCode) {
+            RequestCodeAllocator<PermissionRequest> allocator = getAllocator(requestCode);
+            return allocator != null ? allocator.get(requestCode & LOCAL_MASK) : null;
+        }
+
+        boolean replace(int requestCode, PermissionRequest expectedRequest, PermissionRequest request) {
+            RequestCodeAllocator<PermissionRequest> allocator = getAllocator(requestCode);
+            return allocator != null && allocator.replace(requestCode & LOCAL_MASK, expectedRequest, request);
+        }
+
+        @Nullable
+        PermissionRequest release(int requestCode) {
+            RequestCodeAllocator<PermissionRequest> allocator = getAllocator(requestCode);
+            return allocator != null ? allocator.release(requestCode & LOCAL_MASK) : null;
+        }
+
+        /**
+         * Find the lowest request code in use that is greater than or equal to the given code.
+         *
+         * @return the next request code in use, or -1 if there is none
+         */
+        int nextUsed(int fromRequestCode) {
+            if (fromRequestCode < PAGE_SIZE) {
+                int requestCode = ownCodes.nextUsed(fromRequestCode);
+                if (requestCode != -1) {
+                    return requestCode;
+                }
+                fromRequestCode = PAGE_SIZE;
+            }
+
+            AtomicReferenceArray<RequestCodeAllocator<PermissionRequest>> pages = this.pages;
+            if (pages == null) {
+                return -1;
+            }
+
+            for (int page = fromRequestCode >>> LOCAL_BITS; page < PAGE_COUNT; page++) {
+                RequestCodeAllocator<PermissionRequest> allocator = pages.get(page);
+                if (allocator == null) {
+                    continue;
+                }
+
+                int localCode = allocator.nextUsed(page == fromRequestCode >>> LOCAL_BITS ? fromRequestCode & LOCAL_MASK : 0);
+                if (localCode != -1) {
+                    return page << LOCAL_BITS | localCode;
+                }
+            }
+
+            return -1;
+        }
+
+        /**
+         * The number of request codes currently in use.
+         */
+        int size() {
+            int size = ownCodes.size();
+            AtomicReferenceArray<RequestCodeAllocator<PermissionRequest>> pages = this.pages;
+            if (pages != null) {
+                for (int page = 1; page < PAGE_COUNT; page++) {
+                    RequestCodeAllocator<PermissionRequest> allocator = pages.get(page);
+                    if (allocator != null) {
+                        size += allocator.size();
+                    }
+                }
+            }
+
+            return size;
+        }
+
+        /**
+         * Keep the given request in the overflow table until a request code is released.
+         */
+        void addOverflow(@NonNull PermissionRequest request) {
+            overflow.add(request);
+        }
+
+        /**
+         * Take the request that has waited longest for a request code, if any.
+         */
+        @Nullable
+        PermissionRequest pollOverflow() {
+            return overflow.poll();
+        }
+
+        int overflowSize() {
+            return overflow.size();
+        }
+
+        /**
+         * Give the borrowed pages without any requests back to the registry. Called when the
+         * pending requests are released, e.g. when the host is destroyed.
+         */
+        synchronized void releaseEmptyPages() {
+            AtomicReferenceArray<RequestCodeAllocator<PermissionRequest>> pages = this.pages;
+            if (pages == null) {
+                return;
+            }
+
+            // Closing the allocator fails if a request is allocated on the page concurrently, and
+            // once it is closed nothing can be allocated on it, so it is safe to give back...
+            for (int page = 1; page < PAGE_COUNT; page++) {
+                RequestCodeAllocator<PermissionRequest> allocator = pages.get(page);
+                if (allocator != null && allocator.close()) {
+                    pages.set(page, null);
+                    registry.releasePage(page, this);
+                }
+            }
+        }
+
+        /**
+         * Get the allocator of the page of the given request code, or null if the page isn't
+         * borrowed by this host.
+         */
+        @Nullable
+        private RequestCodeAllocator<PermissionRequest> getAllocator(int requestCode) {
+            if (requestCode >= 0 && requestCode < PAGE_SIZE) {
+                return ownCodes;
+            }
+            if (requestCode < 0 || requestCode > MAX_REQUEST_CODE) {
+                return null;
+            }
+
+            AtomicReferenceArray<RequestCodeAllocator<PermissionRequest>> pages = this.pages;
+            return pages != null ? pages.get(requestCode >>> LOCAL_BITS) : null;
+        }
+
+        /**
+         * Get the allocator of the given borrowed page, creating it if needed. Must be called
+         * holding the lock of the host.
+         */
+        private RequestCodeAllocator<PermissionRequest> getPage(int page) {
+            AtomicReferenceArray<RequestCodeAllocator<PermissionRequest>> pages = getPages();
+            RequestCodeAllocator<PermissionRequest> allocator = pages.get(page);
+            if (allocator == null) {
+                allocator = new RequestCodeAllocator<>();
+                pages.set(page, allocator);
+            }
+
+            return allocator;
+        }
+
+        private AtomicReferenceArray<RequestCodeAllocator<PermissionRequest>> getPages() {
+            AtomicReferenceArray<RequestCodeAllocator<PermissionRequest>> pages = this.pages;
+            if (pages == null) {
+                synchronized (this) {
+                    pages = this.pages;
+                    if (pages == null) {
+                        pages = new AtomicReferenceArray<>(PAGE_COUNT);
+                        this.pages = pages;
+                    }
+                }
+            }
+
+            return pages;
+        }
+
+        private void checkRange(int requestCode) {
+            int maxRequestCode = wideRequestCodes ? MAX_REQUEST_CODE : PAGE_SIZE - 1;
+            if (requestCode < 0 || requestCode > maxRequestCode) {
+                throw new IllegalArgumentException("The requestCode must be between 0 and " + maxRequestCode + ", was " + requestCode);
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import android.support.annotation.NonNull;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * Makes sure that only one permission request is shown to the user at a time.
+ * <p>
+ * Android only shows one permission dialog at a time, and requests made while another
+ * dialog is showing are cancelled. The scheduler therefore queues the requests of a
+ * PermissionManager and dispatches the next one when the result of the current one is handled.
+ * Requests with a higher priority are dispatched first, requests with the same priority are
+ * dispatched in the order they were scheduled.
+ * <p>
+ * Each PermissionManager has its own scheduler, so the requests are only serialized per
+ * PermissionManager. If several fragments of the same activity each have a PermissionManager,
+ * their requests can still overlap - and all but one of the dialogs be cancelled by the system.
+ * Make the requests through a single PermissionManager, e.g. the activity's, if they may be made
+ * at the same time.
+ */
+public class PermissionRequestScheduler {
+    public static final int PRIORITY_DEFAULT = 0;
+
+    private final @NonNull PermissionManager permissionManager;
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+
+    private long sequence;
+    private Entry inFlight;
+
+    private int maxQueueDepth;
+    private long dispatchedCount;
+    private long totalWaitTimeNanos;
+    private long maxWaitTimeNanos;
+
+    PermissionRequestScheduler(@NonNull PermissionManager permissionManager) {
+        this.permissionManager = permissionManager;
+    }
+
+    /**
+     * Schedule the given request, dispatching it at once if no other request is in flight.
+     */
+    void schedule(int requestCode, @NonNull String[] permissions, int priority) {
+        Entry next;
+        synchronized (this) {
+            queue.add(new Entry(requestCode, permissions, priority, sequence++, System.nanoTime()));
+            maxQueueDepth = Math.max(maxQueueDepth, queue.size());
+            next = pollNext();
+        }
+
+        dispatch(next);
+    }
+
+    /**
+     * Called when the result of the given request code is handled. If it is the request in
+     * flight then the next request in the queue is dispatched.
+     */
+    void onResult(int requestCode) {
+        Entry next;
+        synchronized (this) {
+            if (inFlight == null || inFlight.requestCode != requestCode) {
+                return;
+            }
+
+            inFlight = null;
+            next = pollNext();
+        }
+
+        dispatch(next);
+    }
+
+    /**
+     * Called when the given request code is dropped without a result. The request is removed from
+     * the queue, or if it is the request in flight then the next request in the queue is dispatched.
+     */
+    void cancel(int requestCode) {
+        Entry next;
+        synchronized (this) {
+            if (inFlight == null || inFlight.requestCode != requestCode) {
+                for (Iterator<Entry> iterator = queue.iterator(); iterator.hasNext(); ) {
+                    if (iterator.next().requestCode == requestCode) {
+                        iterator.remove();
+                        break;
+                    }
+                }
+                return;
+            }
+
+            inFlight = null;
+            next = pollNext();
+        }
+
+        dispatch(next);
+    }
+
+    private Entry pollNext() {
+        if (inFlight != null) {
+            return null;
+        }
+
+        Entry next = queue.poll();
+        if (next != null) {
+            long waitTimeNanos = System.nanoTime() - next.scheduledAtNanos;
+            dispatchedCount++;
+            totalWaitTimeNanos += waitTimeNanos;
+            maxWaitTimeNanos = Math.max(maxWaitTimeNanos, waitTimeNanos);
+            inFlight = next;
+        }
+
+        return next;
+    }
+
+    private void dispatch(Entry entry) {
+        // Dispatch outside the lock, as the request may be answered synchronously, e.g. if
+        // the app is running on a platform without runtime permissions...
+        if (entry != null) {
+            PermissionJournal journal = permissionManager.getJournal();
+            if (journal != null) {
+                journal.record(PermissionJournal.DISPATCHED, entry.requestCode, entry.permissions, 0);
+            }
+
+            try {
+                permissionManager.markDispatched(entry.requestCode);
+                permissionManager.requestPermission(entry.requestCode, entry.permissions);
+            } catch (RuntimeException e) {
+                // The request never reached the system, so no result will arrive. Answer it as
+                // cancelled, which also dispatches the next request, instead of leaving it in
+                // flight forever...
+                permissionManager.handlePermissionResult(entry.requestCode, entry.permissions, new int[0]);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * The number of requests waiting to be dispatched, not counting the request in flight.
+     */
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    public synchronized int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public synchronized boolean isRequestInFlight() {
+        return inFlight != null;
+    }
+
+    /**
+     * The request code of the request in flight, or -1 if there is none.
+     */
+    synchronized int getInFlightRequestCode() {
+        return inFlight != null ? inFlight.requestCode : -1;
+    }
+
+    /**
+     * Check if the given request code is waiting in the queue, i.e. it hasn't been sent to the
+     * system yet.
+     */
+    synchronized boolean isQueued(int requestCode) {
+        for (Entry entry : queue) {
+            if (entry.requestCode == requestCode) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public synchronized long getDispatchedCount() {
+        return dispatchedCount;
+    }
+
+    /**
+     * The average time, in milliseconds, a request has waited in the queue before being dispatched.
+     */
+    public synchronized long getAverageWaitTimeMillis() {
+        return dispatchedCount == 0 ? 0 : totalWaitTimeNanos / dispatchedCount / 1000000L;
+    }
+
+    /**
+     * The longest time, in milliseconds, a request has waited in the queue before being dispatched.
+     */
+    public synchronized long getMaxWaitTimeMillis() {
+        return maxWaitTimeNanos / 1000000L;
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        private final int requestCode;
+        private final String[] permissions;
+        private final int priority;
+        private final long sequence;
+        private final long scheduledAtNanos;
+
+        public Entry(int requestCode, String[] permissions, int priority, long sequence, long scheduledAtNanos) {
+            this.requestCode = requestCode;
+            this.permissions = permissions;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.scheduledAtNanos = scheduledAtNanos;
+        }
+
+        @Override
+        public int compareTo(@NonNull Entry other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import android.support.annotation.NonNull;
+
+/**
+ * The state of each permission in a request, evaluated in a single pass.
+ * <p>
+ * The states are kept as bitsets indexed by the position of the permission in the
+ * permission array of the request, i.e. bit 0 is the first permission, bit 1 the second and
+ * so on. A permission is either granted or denied. A denied permission may also need a
+ * rationale to be shown before it is requested.
+ */
+public final class PermissionResult {
+    /**
+     * The maximum number of permissions in a single request, as the bitsets are kept in a long.
+     */
+    public static final int MAX_PERMISSIONS = Long.SIZE;
+
+    private final @NonNull String[] permissions;
+    private final long grantedMask;
+    private final long showRationaleMask;
+    private final long undeclaredMask;
+    private final boolean cached;
+
+    PermissionResult(@NonNull String[] permissions, long grantedMask, long showRationaleMask) {
+        this(permissions, grantedMask, showRationaleMask, 0, false);
+    }
+
+    PermissionResult(@NonNull String[] permissions, long grantedMask, long showRationaleMask, long undeclaredMask, boolean cached) {
+        this.permissions = permissions;
+        this.cached = cached;
+        this.undeclaredMask = undeclaredMask & allMask(permissions.length);
+        this.grantedMask = grantedMask & ~this.undeclaredMask & allMask(permissions.length);
+        this.showRationaleMask = showRationaleMask & ~this.grantedMask & allMask(permissions.length);
+    }
+
+    static long allMask(int count) {
+        return count >= MAX_PERMISSIONS ? -1L : (1L << count) - 1;
+    }
+
+    @NonNull
+    public String[] getPermissions() {
+        return permissions;
+    }
+
+    public int size() {
+        return permissions.length;
+    }
+
+    public long getGrantedMask() {
+        return grantedMask;
+    }
+
+    public long getDeniedMask() {
+        return ~grantedMask & allMask(permissions.length);
+    }
+
+    public long getShowRationaleMask() {
+        return showRationaleMask;
+    }
+
+    /**
+     * Get the bitset of permissions that aren't declared in the manifest of the app, and
+     * therefore can't be granted.
+     *
+     * @see DeclaredPermissionIndex
+     */
+    public long getUndeclaredMask() {
+        return undeclaredMask;
+    }
+
+    /**
+     * Check if the granted state of all permissions was served from the
+     * {@link PermissionStateCache}, i.e. if the evaluation was a warm hit.
+     */
+    public boolean isCached() {
+        return cached;
+    }
+
+    /**
+     * Check if all permissions are granted.
+     */
+    public boolean isGranted() {
+        return getDeniedMask() == 0;
+    }
+
+    /**
+     * Check if at least one of the denied permissions should show a permission rationale.
+     */
+    public boolean shouldShowRationale() {
+        return showRationaleMask != 0;
+    }
+
+    public boolean isGranted(int index) {
+        return (grantedMask & (1L << index)) != 0;
+    }
+
+    public boolean shouldShowRationale(int index) {
+        return (showRationaleMask & (1L << index)) != 0;
+    }
+
+    @NonNull
+    public String[] getGrantedPermissions() {
+        return select(grantedMask);
+    }
+
+    @NonNull
+    public String[] getDeniedPermissions() {
+        return select(getDeniedMask());
+    }
+
+    /**
+     * Get the permissions whose bit is set in the given mask, in request order.
+     */
+    @NonNull
+    public String[] select(long mask) {
+        mask &= allMask(permissions.length);
+        String[] selected = new String[Long.bitCount(mask)];
+        int next = 0;
+        while (mask != 0) {
+            int index = Long.numberOfTrailingZeros(mask);
+            selected[next++] = permissions[index];
+            mask &= mask - 1;
+        }
+
+        return selected;
+    }
+
+    /**
+     * Get the result for the given permissions, all of which must be part of this result.
+     * Used to share the result of one request with a request for a subset of its permissions.
+     */
+    @NonNull
+    PermissionResult project(@NonNull String[] otherPermissions) {
+        long otherGrantedMask = 0;
+        long otherShowRationaleMask = 0;
+        for (int i = 0; i < otherPermissions.length; i++) {
+            int index = PermissionUtil.indexOf(permissions, otherPermissions[i]);
+            if (index != -1 && isGranted(index)) {
+                otherGrantedMask |= 1L << i;
+            }
+            if (index != -1 && shouldShowRationale(index)) {
+                otherShowRationaleMask |= 1L << i;
+            }
+        }
+
+        return new PermissionResult(otherPermissions, otherGrantedMask, otherShowRationaleMask);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("PermissionResult{");
+        for (int i = 0; i < permissions.length; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(permissions[i]).append('=');
+            if (isGranted(i)) {
+                builder.append("granted");
+            } else if (shouldShowRationale(i)) {
+                builder.append("rationale");
+            } else {
+                builder.append("denied");
+            }
+        }
+
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,193 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An immutable, sorted set of permissions.
+ * <p>
+ * Sets are interned, so two sets of the same permissions are the same instance, and comparing
+ * sets is a reference comparison. Each distinct permission is given a dense, process-wide index
+ * the first time it is seen, and each set keeps the bitmap of the indexes of its permissions,
+ * so that subset tests are bitwise operations instead of string comparisons. The hash is
+ * computed once, when the set is created.
+ */
+public final class PermissionSet {
+    private static final ConcurrentHashMap<PermissionSet, PermissionSet> INTERNED = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Integer> PERMISSION_INDEXES = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_PERMISSION_INDEX = new AtomicInteger();
+
+    private final @NonNull String[] permissions;
+    private final int hash;
+    private final long[] bitmap;
+
+    private PermissionSet(String[] sortedPermissions, long[] bitmap) {
+        this.permissions = sortedPermissions;
+        this.hash = Arrays.hashCode(sortedPermissions);
+        this.bitmap = bitmap;
+    }
+
+    /**
+     * Get the set of the given permissions. Duplicate permissions are only included once.
+     */
+    @NonNull
+    public static PermissionSet of(@NonNull String... permissions) {
+        for (String permission : permissions) {
+            if (permission == null) {
+                throw new IllegalArgumentException("A PermissionSet can't contain null");
+            }
+        }
+
+        String[] sortedPermissions = permissions.clone();
+        Arrays.sort(sortedPermissions);
+
+        int count = 0;
+        for (int i = 0; i < sortedPermissions.length; i++) {
+            if (i == 0 || !sortedPermissions[i].equals(sortedPermissions[count - 1])) {
+                sortedPermissions[count++] = sortedPermissions[i];
+            }
+        }
+        if (count < sortedPermissions.length) {
+            sortedPermissions = Arrays.copyOf(sortedPermissions, count);
+        }
+
+        // Look the set up before building its bitmap, as the set has usually been seen before...
+        PermissionSet interned = INTERNED.get(new PermissionSet(sortedPermissions, null));
+        if (interned != null) {
+            return interned;
+        }
+
+        PermissionSet candidate = new PermissionSet(sortedPermissions, createBitmap(sortedPermissions));
+        interned = INTERNED.putIfAbsent(candidate, candidate);
+        return interned != null ? interned : candidate;
+    }
+
+    /**
+     * Get the dense, process-wide index of the given permission, assigning one if needed.
+     */
+    static int getPermissionIndex(@NonNull String permission) {
+        Integer index = PERMISSION_INDEXES.get(permission);
+        if (index == null) {
+            Integer newIndex = NEXT_PERMISSION_INDEX.getAndIncrement();
+            index = PERMISSION_INDEXES.putIfAbsent(permission, newIndex);
+            if (index == null) {
+                index = newIndex;
+            }
+        }
+
+        return index;
+    }
+
+    private static long[] createBitmap(String[] permissions) {
+        int[] indexes = new int[permissions.length];
+        int maxIndex = -1;
+        for (int i = 0; i < permissions.length; i++) {
+            indexes[i] = getPermissionIndex(permissions[i]);
+            maxIndex = Math.max(maxIndex, indexes[i]);
+        }
+
+        long[] bitmap = new long[maxIndex / Long.SIZE + 1];
+        for (int index : indexes) {
+            bitmap[index / Long.SIZE] |= 1L << (index % Long.SIZE);
+        }
+
+        return bitmap;
+    }
+
+    public int size() {
+        return permissions.length;
+    }
+
+    @NonNull
+    public String get(int index) {
+        return permissions[index];
+    }
+
+    /**
+     * Get the position of the given permission in the set, or -1 if it isn't part of the set.
+     */
+    public int indexOf(@NonNull String permission) {
+        int index = Arrays.binarySearch(permissions, permission);
+        return index < 0 ? -1 : index;
+    }
+
+    public boolean contains(@NonNull String permission) {
+        return indexOf(permission) != -1;
+    }
+
+    /**
+     * Check if the set contains the permission with the given dense, process-wide index.
+     */
+    boolean containsPermissionIndex(int permissionIndex) {
+        int word = permissionIndex / Long.SIZE;
+        return word < bitmap.length && (bitmap[word] & (1L << (permissionIndex % Long.SIZE))) != 0;
+    }
+
+    /**
+     * Check if this set contains all the permissions of the other set.
+     */
+    public boolean containsAll(@NonNull PermissionSet other) {
+        if (other == this) {
+            return true;
+        }
+        if (other.bitmap.length > bitmap.length) {
+            for (int word = bitmap.length; word < other.bitmap.length; word++) {
+                if (other.bitmap[word] != 0) {
+                    return false;
+                }
+            }
+        }
+
+        int words = Math.min(bitmap.length, other.bitmap.length);
+        for (int word = 0; word < words; word++) {
+            if ((other.bitmap[word] & ~bitmap[word]) != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Get a copy of the permissions of the set, in sorted order.
+     */
+    @NonNull
+    public String[] toArray() {
+        return permissions.clone();
+    }
+
+    /**
+     * Get the permissions of the set without copying them. The array must not be modified.
+     */
+    @NonNull
+    String[] getPermissions() {
+        return permissions;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PermissionSet)) {
+            return false;
+        }
+
+        // Interned sets are only ever equal to themselves, so this is only reached when interning...
+        PermissionSet other = (PermissionSet) o;
+        return hash == other.hash && Arrays.equals(permissions, other.permissions);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(permissions);
+    }
+}
@@ -0,0 +1,273 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.v4.content.ContextCompat;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers whether each permission is granted or denied, so that repeated checks of the same
+ * permission don't result in a call to {@link ContextCompat#checkSelfPermission(Context, String)}
+ * every time.
+ * <p>
+ * The cache is opt-in and enabled by calling
+ * {@link PermissionManager#setPermissionStateCache(PermissionStateCache)}. Permission state
+ * can only change when the user answers a permission request, or when the user changes the
+ * permissions of the app in the system settings. The cache is therefore invalidated when
+ * a permission result is handled by the PermissionManager, when the app returns to the
+ * foreground, and when {@link #invalidate()} is called explicitly. Revoking a permission in the
+ * system settings kills the app process, so a revoked permission is never served from the cache.
+ * <p>
+ * The cache can be warmed in Application.onCreate() by calling
+ * {@link PermissionManager#prefetch(Context, String...)}, so that the first checks of the
+ * launch activity are served from memory.
+ */
+public class PermissionStateCache {
+    private static final PermissionStateCache INSTANCE = new PermissionStateCache();
+
+    private final ConcurrentHashMap<String, Boolean> states = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicBoolean attached = new AtomicBoolean();
+
+    private volatile long prefetchDurationNanos = -1;
+
+    /**
+     * Get the process-wide cache instance, shared by all PermissionManagers using it.
+     */
+    public static PermissionStateCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Check if the given permission is granted, using the cached state if available.
+     */
+    public boolean checkPermission(@NonNull Context context, @NonNull String permission) {
+        attach(context);
+
+        Boolean granted = lookup(permission);
+        if (granted != null) {
+            return granted;
+        }
+
+        long expectedGeneration = generation.get();
+        granted = ContextCompat.checkSelfPermission(context, permission) == PackageManager.PERMISSION_GRANTED;
+        store(permission, granted, expectedGeneration);
+        return granted;
+    }
+
+    /**
+     * Check if the given permission is granted, using the cached state if available, and
+     * the given backend if not.
+     */
+    boolean checkPermission(@NonNull PermissionBackend backend, @NonNull String permission) {
+        Context context = backend.getContext();
+        if (context != null) {
+            attach(context);
+        }
+
+        Boolean granted = lookup(permission);
+        if (granted != null) {
+            return granted;
+        }
+
+        long expectedGeneration = generation.get();
+        granted = backend.checkPermission(permission);
+        store(permission, granted, expectedGeneration);
+        return granted;
+    }
+
+    private Boolean lookup(String permission) {
+        Boolean granted = states.get(permission);
+        if (granted != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+
+        return granted;
+    }
+
+    /**
+     * Only store the result if the cache wasn't invalidated while the permission was
+     * being checked, or a stale state might survive the invalidation.
+     */
+    private void store(String permission, boolean granted, long expectedGeneration) {
+        if (generation.get() == expectedGeneration) {
+            states.put(permission, granted);
+
+            // The cache may have been invalidated while the state was being stored...
+            if (generation.get() != expectedGeneration) {
+                states.remove(permission, granted);
+            }
+        }
+    }
+
+    /**
+     * Check if the state of all the given permissions is currently cached, i.e. if checking
+     * the permissions would be a warm hit. The check itself isn't counted as a hit or a miss.
+     */
+    public boolean containsAll(@NonNull String[] permissions) {
+        for (String permission : permissions) {
+            if (!states.containsKey(permission)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Check the given permissions on a background thread, so that later checks are served
+     * from memory.
+     */
+    void prefetch(@NonNull Context context, @NonNull final String[] permissions) {
+        final Context applicationContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+
+        // Attach at once, rather than from the background thread, so no lifecycle event is missed...
+        attach(applicationContext);
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                for (String permission : permissions) {
+                    checkPermission(applicationContext, permission);
+                }
+                prefetchDurationNanos = System.nanoTime() - start;
+            }
+        }, "PermissionPrefetch");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Check if a prefetch started by {@link PermissionManager#prefetch(Context, String...)}
+     * has completed.
+     */
+    public boolean isPrefetched() {
+        return prefetchDurationNanos >= 0;
+    }
+
+    /**
+     * The time, in milliseconds, it took to prefetch the permission states, or -1 if no
+     * prefetch has completed.
+     */
+    public long getPrefetchDurationMillis() {
+        long durationNanos = prefetchDurationNanos;
+        return durationNanos < 0 ? -1 : durationNanos / 1000000L;
+    }
+
+    /**
+     * Remove all cached permission states.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        states.clear();
+    }
+
+    /**
+     * The number of checks answered by the cache, i.e. without a call to the system.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * The number of checks that had to be answered by the system.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public void resetStatistics() {
+        hitCount.set(0);
+        missCount.set(0);
+    }
+
+    /**
+     * Register for activity lifecycle callbacks the first time the cache is used. The user
+     * might have granted permissions in the system settings while the app was in the
+     * background, so the cache is invalidated every time the app returns to the foreground.
+     */
+    private void attach(Context context) {
+        if (attached.get()) {
+            return;
+        }
+
+        Context applicationContext = context.getApplicationContext();
+        if (applicationContext instanceof Application && attached.compareAndSet(false, true)) {
+            InvalidateOnForegroundCallbacks.register((Application) applicationContext, this);
+        }
+    }
+
+    /**
+     * Invalidates the cache when an activity is started after all activities of the app have
+     * been stopped. Resuming after a permission dialog, or starting the first activity after a
+     * prefetch, doesn't invalidate the cache, as the app hasn't been in the background.
+     */
+    private static class InvalidateOnForegroundCallbacks implements Application.ActivityLifecycleCallbacks {
+        private final PermissionStateCache cache;
+
+        private int startedActivities;
+        private boolean inBackground;
+
+        private InvalidateOnForegroundCallbacks(PermissionStateCache cache) {
+            this.cache = cache;
+        }
+
+        /**
+         * Registering from a static method keeps the framework callback interface out of the
+         * cache itself, so the cache can be loaded on a plain JVM, e.g. by the benchmarks.
+         */
+        static void register(Application application, PermissionStateCache cache) {
+            application.registerActivityLifecycleCallbacks(new InvalidateOnForegroundCallbacks(cache));
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+            startedActivities++;
+            if (inBackground) {
+                inBackground = false;
+                cache.invalidate();
+            }
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+            startedActivities--;
+            if (startedActivities <= 0 && !activity.isChangingConfigurations()) {
+                startedActivities = 0;
+                inBackground = true;
+            }
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import android.support.annotation.NonNull;
+
+import com.github.buchandersenn.android_permission_manager.callbacks.OnPermissionStateChangedCallback;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the last known state of the permissions observed through a PermissionManager, and
+ * notifies the subscriptions of a permission when its state changes.
+ * <p>
+ * The permissions of all subscriptions are tracked together, so a refresh checks each observed
+ * permission once, no matter how many subscriptions observe it. The known states are kept in
+ * a bitmap indexed by the dense permission index of {@link PermissionSet}, so comparing the
+ * new state with the known state doesn't allocate.
+ */
+class PermissionStateTracker {
+    private final @NonNull PermissionManager permissionManager;
+
+    private final List<PermissionSubscription> subscriptions = new ArrayList<>();
+    private PermissionSubscription[] subscriptionArray = new PermissionSubscription[0];
+
+    private String[] trackedPermissions = new String[0];
+    private int[] trackedIndexes = new int[0];
+    private long[] grantedBitmap = new long[0];
+
+    PermissionStateTracker(@NonNull PermissionManager permissionManager) {
+        this.permissionManager = permissionManager;
+    }
+
+    /**
+     * Subscribe to the given permissions. The current state of permissions that aren't tracked
+     * already is recorded, without notifying anyone.
+     */
+    synchronized PermissionSubscription subscribe(@NonNull PermissionSet permissions, @NonNull OnPermissionStateChangedCallback callback) {
+        PermissionSubscription subscription = new PermissionSubscription(this, permissions, callback);
+        subscriptions.add(subscription);
+
+        for (int i = 0; i < permissions.size(); i++) {
+            String permission = permissions.get(i);
+            int index = PermissionSet.getPermissionIndex(permission);
+            if (!isTracked(index)) {
+                track(permission, index, permissionManager.isPermissionGranted(permission));
+            }
+        }
+
+        subscriptionArray = subscriptions.toArray(new PermissionSubscription[subscriptions.size()]);
+        return subscription;
+    }
+
+    synchronized void unsubscribe(@NonNull PermissionSubscription subscription) {
+        if (!subscriptions.remove(subscription)) {
+            return;
+        }
+
+        subscriptionArray = subscriptions.toArray(new PermissionSubscription[subscriptions.size()]);
+
+        // Stop tracking the permissions no subscription observes anymore. The arrays are
+        // replaced rather than compacted in place, like the subscriptions...
+        String[] observedPermissions = new String[trackedPermissions.length];
+        int[] observedIndexes = new int[trackedIndexes.length];
+        int count = 0;
+        for (int i = 0; i < trackedPermissions.length; i++) {
+            if (isObserved(trackedIndexes[i])) {
+                observedPermissions[count] = trackedPermissions[i];
+                observedIndexes[count] = trackedIndexes[i];
+                count++;
+            }
+        }
+        trackedPermissions = Arrays.copyOf(observedPermissions, count);
+        trackedIndexes = Arrays.copyOf(observedIndexes, count);
+    }
+
+    synchronized boolean isSubscribed(@NonNull PermissionSubscription subscription) {
+        return subscriptions.contains(subscription);
+    }
+
+    synchronized void clear() {
+        subscriptions.clear();
+        subscriptionArray = new PermissionSubscription[0];
+        trackedPermissions = new String[0];
+        trackedIndexes = new int[0];
+    }
+
+    synchronized boolean isEmpty() {
+        return subscriptions.isEmpty();
+    }
+
+    /**
+     * Check the state of each tracked permission, and notify the subscriptions of the permissions
+     * whose state has changed since the last refresh. The subscriptions are notified after the
+     * lock is released, so a callback can subscribe or unsubscribe. A subscription unsubscribed
+     * by an earlier callback isn't notified.
+     *
+     * @return the number of permissions whose state has changed
+     */
+    int refresh() {
+        int changed = 0;
+        List<Notification> notifications = null;
+        synchronized (this) {
+            for (int i = 0; i < trackedPermissions.length; i++) {
+                String permission = trackedPermissions[i];
+                int index = trackedIndexes[i];
+                boolean granted = permissionManager.isPermissionGranted(permission);
+                if (granted == isKnownGranted(index)) {
+                    continue;
+                }
+
+                setKnownGranted(index, granted);
+                changed++;
+                if (notifications == null) {
+                    notifications = new ArrayList<>();
+                }
+                for (PermissionSubscription subscription : subscriptionArray) {
+                    if (subscription.getPermissions().containsPermissionIndex(index)) {
+                        notifications.add(new Notification(subscription, permission, granted));
+                    }
+                }
+            }
+        }
+
+        if (notifications != null) {
+            for (Notification notification : notifications) {
+                if (isSubscribed(notification.subscription)) {
+                    notification.subscription.getCallback().onPermissionStateChanged(notification.permission, notification.granted);
+                }
+            }
+        }
+
+        return changed;
+    }
+
+    private boolean isTracked(int index) {
+        for (int trackedIndex : trackedIndexes) {
+            if (trackedIndex == index) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isObserved(int index) {
+        for (PermissionSubscription subscription : subscriptions) {
+            if (subscription.getPermissions().containsPermissionIndex(index)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void track(String permission, int index, boolean granted) {
+        trackedPermissions = Arrays.copyOf(trackedPermissions, trackedPermissions.length + 1);
+        trackedPermissions[trackedPermissions.length - 1] = permission;
+        trackedIndexes = Arrays.copyOf(trackedIndexes, trackedIndexes.length + 1);
+        trackedIndexes[trackedIndexes.length - 1] = index;
+
+        if (index / Long.SIZE >= grantedBitmap.length) {
+            grantedBitmap = Arrays.copyOf(grantedBitmap, index / Long.SIZE + 1);
+        }
+        setKnownGranted(index, granted);
+    }
+
+    private boolean isKnownGranted(int index) {
+        return (grantedBitmap[index / Long.SIZE] & (1L << (index % Long.SIZE))) != 0;
+    }
+
+    private void setKnownGranted(int index, boolean granted) {
+        if (granted) {
+            grantedBitmap[index / Long.SIZE] |= 1L << (index % Long.SIZE);
+        } else {
+            grantedBitmap[index / Long.SIZE] &= ~(1L << (index % Long.SIZE));
+        }
+    }
+
+    private static class Notification {
+        private final PermissionSubscription subscription;
+        private final String permission;
+        private final boolean granted;
+
+        Notification(PermissionSubscription subscription, String permission, boolean granted) {
+            this.subscription = subscription;
+            this.permission = permission;
+            this.granted = granted;
+        }
+    }
+}
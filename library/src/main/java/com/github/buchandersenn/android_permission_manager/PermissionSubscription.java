@@ -0,0 +1,51 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import android.support.annotation.NonNull;
+
+import com.github.buchandersenn.android_permission_manager.callbacks.OnPermissionStateChangedCallback;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * A subscription to the state changes of a set of permissions, created by
+ * {@link PermissionManager#observe(PermissionSet, OnPermissionStateChangedCallback)}.
+ * <p>
+ * The subscription only weakly references the PermissionManager, so it can be kept by objects
+ * that outlive the host, e.g. a ViewModel, without keeping the host in memory.
+ */
+public class PermissionSubscription {
+    private final @NonNull WeakReference<PermissionStateTracker> tracker;
+    private final @NonNull PermissionSet permissions;
+    private final @NonNull OnPermissionStateChangedCallback callback;
+
+    PermissionSubscription(@NonNull PermissionStateTracker tracker, @NonNull PermissionSet permissions, @NonNull OnPermissionStateChangedCallback callback) {
+        this.tracker = new WeakReference<>(tracker);
+        this.permissions = permissions;
+        this.callback = callback;
+    }
+
+    /**
+     * Stop receiving state changes. Calling this more than once has no effect.
+     */
+    public void unsubscribe() {
+        PermissionStateTracker stateTracker = tracker.get();
+        if (stateTracker != null) {
+            stateTracker.unsubscribe(this);
+        }
+    }
+
+    public boolean isSubscribed() {
+        PermissionStateTracker stateTracker = tracker.get();
+        return stateTracker != null && stateTracker.isSubscribed(this);
+    }
+
+    @NonNull
+    PermissionSet getPermissions() {
+        return permissions;
+    }
+
+    @NonNull
+    OnPermissionStateChangedCallback getCallback() {
+        return callback;
+    }
+}
@@ -0,0 +1,117 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import android.os.Build;
+import android.os.Trace;
+
+import java.lang.reflect.Method;
+
+/**
+ * Emits systrace/Perfetto trace sections for the work done by the PermissionManager, so that
+ * permission checks, requests and callbacks show up by name when profiling startup and jank.
+ * <p>
+ * Tracing is off by default and is switched on for all PermissionManagers with
+ * {@link #setEnabled(boolean)}. While tracing is off, each traced method only reads a single
+ * static flag. Trace sections require Android 4.3 (API 18). Async sections, which span from a
+ * permission request until its result is handled, are emitted where the platform supports them,
+ * and are otherwise left out.
+ */
+public final class PermissionTracing {
+    static final String CHECK = "PermissionManager.check";
+    static final String REQUEST = "PermissionManager.request";
+    static final String REQUEST_PERMISSION = "PermissionManager.requestPermission";
+    static final String HANDLE_PERMISSION_RESULT = "PermissionManager.handlePermissionResult";
+    static final String FIRE_GRANTED = "PermissionRequest.fireOnPermissionGrantedCallback";
+    static final String FIRE_DENIED = "PermissionRequest.fireOnPermissionDeniedCallback";
+    static final String FIRE_SHOW_RATIONALE = "PermissionRequest.fireOnPermissionShowRationaleCallback";
+    static final String PENDING_REQUEST = "PermissionRequest";
+
+    // The tag used by Trace.beginSection(), needed by the hidden async trace methods...
+    private static final long TRACE_TAG_APP = 1L << 12;
+
+    static volatile boolean enabled;
+
+    private static Method beginAsyncSection;
+    private static Method endAsyncSection;
+    private static boolean tagged;
+
+    private PermissionTracing() {
+    }
+
+    /**
+     * Switch tracing on or off. Has no effect on platforms without trace sections.
+     */
+    public static synchronized void setEnabled(boolean enabled) {
+        if (enabled && Build.VERSION.SDK_INT < 18) {
+            return;
+        }
+
+        if (enabled && beginAsyncSection == null) {
+            resolveAsyncMethods();
+        }
+        PermissionTracing.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    static void beginSection(String name) {
+        Trace.beginSection(name);
+    }
+
+    static void endSection() {
+        Trace.endSection();
+    }
+
+    /**
+     * Begin an async section, which may end on another thread. The cookie identifies the section
+     * among other sections with the same name.
+     */
+    static void beginAsyncSection(String name, int cookie) {
+        invokeAsync(beginAsyncSection, name, cookie);
+    }
+
+    static void endAsyncSection(String name, int cookie) {
+        invokeAsync(endAsyncSection, name, cookie);
+    }
+
+    private static void invokeAsync(Method method, String name, int cookie) {
+        if (method == null) {
+            return;
+        }
+
+        try {
+            if (tagged) {
+                method.invoke(null, TRACE_TAG_APP, name, cookie);
+            } else {
+                method.invoke(null, name, cookie);
+            }
+        } catch (Exception e) {
+            // Async sections are a nice-to-have, so a failing call is simply ignored...
+        }
+    }
+
+    /**
+     * The async trace methods are public from Android 10 (API 29), and hidden methods taking
+     * a trace tag before that. Neither are part of the compile SDK, so they are looked up once.
+     */
+    private static void resolveAsyncMethods() {
+        try {
+            beginAsyncSection = Trace.class.getMethod("beginAsyncSection", String.class, int.class);
+            endAsyncSection = Trace.class.getMethod("endAsyncSection", String.class, int.class);
+            tagged = false;
+            return;
+        } catch (NoSuchMethodException | SecurityException e) {
+            // Not Android 10, so try the hidden methods instead...
+        }
+
+        try {
+            beginAsyncSection = Trace.class.getMethod("asyncTraceBegin", long.class, String.class, int.class);
+            endAsyncSection = Trace.class.getMethod("asyncTraceEnd", long.class, String.class, int.class);
+            tagged = true;
+        } catch (NoSuchMethodException | SecurityException e) {
+            beginAsyncSection = null;
+            endAsyncSection = null;
+        }
+    }
+}
@@ -1,71 +1,92 @@
 package com.github.buchandersenn.android_permission_manager;
 
 import android.app.Activity;
-import android.app.Fragment;
-import android.content.Context;
 import android.content.pm.PackageManager;
 import android.support.annotation.NonNull;
-import android.support.v13.app.FragmentCompat;
-import android.support.v4.app.ActivityCompat;
-import android.support.v4.content.ContextCompat;
 
+/**
+ * Helpers for evaluating permissions. Each method evaluates all the given permissions in
+ * one pass and returns a bitset, where bit i corresponds to permissions[i].
+ *
+ * @see PermissionResult
+ */
 public class PermissionUtil {
     /**
-     * Check if that all given permissions are granted.
+     * Get the bitset of granted permissions, using the given cache if it isn't null.
      */
-    static boolean checkPermissions(Context context, @NonNull String[] permissions) {
-        for (String permission : permissions) {
-            if (ContextCompat.checkSelfPermission(context, permission) != PackageManager.PERMISSION_GRANTED) {
-                return false;
+    static long checkPermissions(@NonNull PermissionBackend backend, @NonNull String[] permissions, PermissionStateCache cache) {
+        long grantedMask = 0;
+        for (int i = 0; i < permissions.length; i++) {
+            boolean granted;
+            if (cache == null) {
+                granted = backend.checkPermission(permissions[i]);
+            } else {
+                granted = cache.checkPermission(backend, permissions[i]);
+            }
+
+            if (granted) {
+                grantedMask |= 1L << i;
             }
         }
 
-        return true;
+        return grantedMask;
     }
 
     /**
-     * Check if at least one of the given permissions should show a permission rationale.
+     * Get the bitset of permissions that should show a permission rationale. Only the
+     * permissions in the candidate bitset are evaluated.
      */
-    static boolean shouldShowPermissionRationale(Activity activity, @NonNull String[] permissions) {
-        for (String permission : permissions) {
-            if (ActivityCompat.shouldShowRequestPermissionRationale(activity, permission)) {
-                return true;
+    static long shouldShowPermissionRationale(@NonNull PermissionBackend backend, @NonNull String[] permissions, long candidateMask) {
+        long showRationaleMask = 0;
+        for (int i = 0; i < permissions.length; i++) {
+            long bit = 1L << i;
+            if ((candidateMask & bit) != 0 && backend.shouldShowPermissionRationale(permissions[i])) {
+                showRationaleMask |= bit;
             }
         }
 
-        return false;
+        return showRationaleMask;
     }
 
     /**
-     * Check if at least one of the given permissions should show a permission rationale.
+     * Check if the first array contains all the permissions of the second array.
      */
-    static boolean shouldShowPermissionRationale(Fragment fragment, @NonNull String[] permissions) {
-        for (String permission : permissions) {
-            if (FragmentCompat.shouldShowRequestPermissionRationale(fragment, permission)) {
-                return true;
+    static boolean containsAll(@NonNull String[] permissions, @NonNull String[] otherPermissions) {
+        for (String otherPermission : otherPermissions) {
+            if (indexOf(permissions, otherPermission) == -1) {
+                return false;
             }
         }
 
-        return false;
+        return true;
+    }
+
+    static int indexOf(@NonNull String[] permissions, String permission) {
+        for (int i = 0; i < permissions.length; i++) {
+            if (permissions[i].equals(permission)) {
+                return i;
+            }
+        }
+
+        return -1;
     }
 
     /**
-     * Check that all given permissions have been granted by verifying that each entry in the
-     * given array is of the value {@link PackageManager#PERMISSION_GRANTED}.
+     * Get the bitset of granted permissions from the result of a permission request, i.e. the
+     * entries in the given array with the value {@link PackageManager#PERMISSION_GRANTED}.
+     * An empty array means that the request was cancelled, in which case nothing is granted.
      *
      * @see Activity#onRequestPermissionsResult(int, String[], int[])
      */
-    static boolean verifyPermissionResults(@NonNull int[] grantResults) {
-        if (grantResults.length < 1) {
-            return false;
-        }
-
-        for (int result : grantResults) {
-            if (result != PackageManager.PERMISSION_GRANTED) {
-                return false;
+    static long verifyPermissionResults(@NonNull int[] grantResults) {
+        long grantedMask = 0;
+        int count = Math.min(grantResults.length, PermissionResult.MAX_PERMISSIONS);
+        for (int i = 0; i < count; i++) {
+            if (grantResults[i] == PackageManager.PERMISSION_GRANTED) {
+                grantedMask |= 1L << i;
             }
         }
 
-        return true;
+        return grantedMask;
     }
 }
@@ -0,0 +1,68 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * A permission request built once by {@link PermissionRequestBuilder#prepare()}, which can be
+ * checked and requested any number of times.
+ * <p>
+ * Unlike building a new request for every check, checking a prepared request doesn't allocate
+ * a builder, a permission array or a request. The result of the previous check is reused as long
+ * as the granted permissions are the same, so once the state of the permissions is known - and
+ * cached, if a {@link PermissionStateCache} is used - a check doesn't allocate at all, as long as
+ * the journal and metrics are disabled and the callbacks don't allocate themselves.
+ * <pre>
+ * private PreparedPermissionRequest contactsCheck;
+ *
+ * contactsCheck = permissionManager.with(Manifest.permission.READ_CONTACTS)
+ *         .onPermissionGranted(...)
+ *         .onPermissionDenied(...)
+ *         .prepare();
+ *
+ * public void onBindViewHolder(ViewHolder holder, int position) {
+ *     contactsCheck.check();
+ * }
+ * </pre>
+ */
+public class PreparedPermissionRequest {
+    private final @NonNull PermissionManager manager;
+    private final @NonNull PermissionRequest checkRequest;
+
+    PreparedPermissionRequest(@NonNull PermissionManager manager, @NonNull PermissionRequest checkRequest) {
+        this.manager = manager;
+        this.checkRequest = checkRequest;
+    }
+
+    /**
+     * Check the permissions without asking the user, and fire the granted or denied callback.
+     */
+    public void check() {
+        manager.checkPrepared(checkRequest);
+    }
+
+    /**
+     * Check if all the permissions are granted, without firing any callbacks.
+     */
+    public boolean isGranted() {
+        PermissionResult result = manager.reevaluate(checkRequest);
+        checkRequest.setPermissionResult(result);
+        return result.isGranted();
+    }
+
+    /**
+     * Get the result of the most recent check, or null if the request hasn't been checked yet.
+     */
+    @Nullable
+    public PermissionResult getPermissionResult() {
+        return checkRequest.getPermissionResult();
+    }
+
+    /**
+     * Perform the request. Each request is tracked separately until its result is handled,
+     * so unlike a check this allocates a new request.
+     */
+    public void request() {
+        manager.request(checkRequest.copy());
+    }
+}
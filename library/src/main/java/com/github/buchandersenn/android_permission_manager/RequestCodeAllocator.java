@@ -0,0 +1,190 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps track of the request codes in use and the pending request registered for each code.
+ * <p>
+ * The request codes in use are kept in a 256 bit bitmap, updated using compare-and-set, and the
+ * pending requests in a matching slot table. Allocating, looking up and releasing a request code
+ * are all constant time operations, and safe to call from any thread without locking.
+ */
+class RequestCodeAllocator<T> {
+    /**
+     * FragmentCompat only allows the lower 8 bits to be used for the request code,
+     * so the request code must be between 0 and 255.
+     */
+    static final int REQUEST_CODE_COUNT = 256;
+
+    private static final int WORD_COUNT = REQUEST_CODE_COUNT / Long.SIZE;
+
+    private final AtomicLongArray usedCodes = new AtomicLongArray(WORD_COUNT);
+    private final AtomicReferenceArray<T> slots = new AtomicReferenceArray<>(REQUEST_CODE_COUNT);
+
+    /**
+     * Allocate the lowest unused request code and register the given value for it.
+     *
+     * @return the allocated request code, or -1 if all request codes are in use
+     */
+    int allocate(T value) {
+        for (int word = 0; word < WORD_COUNT; word++) {
+            long bits = usedCodes.get(word);
+            while (bits != -1L) {
+                long bit = Long.lowestOneBit(~bits);
+                if (usedCodes.compareAndSet(word, bits, bits | bit)) {
+                    int requestCode = word * Long.SIZE + Long.numberOfTrailingZeros(bit);
+                    slots.set(requestCode, value);
+                    return requestCode;
+                }
+
+                bits = usedCodes.get(word);
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Reserve the given request code and register the given value for it.
+     *
+     * @return true if the request code was reserved, false if it is already in use
+     */
+    boolean reserve(int requestCode, T value) {
+        checkRange(requestCode);
+
+        int word = requestCode / Long.SIZE;
+        long bit = 1L << (requestCode % Long.SIZE);
+        long bits;
+        do {
+            bits = usedCodes.get(word);
+            if ((bits & bit) != 0) {
+                return false;
+            }
+        } while (!usedCodes.compareAndSet(word, bits, bits | bit));
+
+        slots.set(requestCode, value);
+        return true;
+    }
+
+    /**
+     * Get the value registered for the given request code, or null if the code isn't in use.
+     */
+    @Nullable
+    T get(int requestCode) {
+        if (requestCode < 0 || requestCode >= REQUEST_CODE_COUNT) {
+            return null;
+        }
+
+        return slots.get(requestCode);
+    }
+
+    /**
+     * Replace the value registered for the given request code, if it is still the expected value.
+     *
+     * @return true if the value was replaced
+     */
+    boolean replace(int requestCode, T expectedValue, T value) {
+        if (requestCode < 0 || requestCode >= REQUEST_CODE_COUNT || value == null) {
+            return false;
+        }
+
+        return slots.compareAndSet(requestCode, expectedValue, value);
+    }
+
+    /**
+     * Release the given request code, making it available for allocation again.
+     *
+     * @return the value registered for the request code, or null if the code wasn't in use
+     */
+    @Nullable
+    T release(int requestCode) {
+        if (requestCode < 0 || requestCode >= REQUEST_CODE_COUNT) {
+            return null;
+        }
+
+        // Only the thread that empties the slot clears the bit, so a code that is being
+        // allocated - i.e. whose bit is set but whose slot isn't filled yet - is left alone...
+        T value = slots.getAndSet(requestCode, null);
+        if (value == null) {
+            return null;
+        }
+
+        int word = requestCode / Long.SIZE;
+        long bit = 1L << (requestCode % Long.SIZE);
+        long bits;
+        do {
+            bits = usedCodes.get(word);
+        } while (!usedCodes.compareAndSet(word, bits, bits & ~bit));
+
+        return value;
+    }
+
+    /**
+     * Mark all request codes as in use if none are, so that nothing can be allocated or reserved
+     * any more. Used before giving a borrowed page back: a concurrent allocation either takes its
+     * code first, which makes closing fail, or finds no free code on the closed allocator.
+     *
+     * @return true if the allocator was closed, false if a request code is in use
+     */
+    boolean close() {
+        for (int word = 0; word < WORD_COUNT; word++) {
+            if (!usedCodes.compareAndSet(word, 0, -1L)) {
+                // Nothing else can change the words closed so far, as all their codes are taken
+                // and none of their slots are filled...
+                for (int closedWord = 0; closedWord < word; closedWord++) {
+                    usedCodes.set(closedWord, 0);
+                }
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Find the lowest request code in use that is greater than or equal to the given code.
+     * Only the words of the bitmap are scanned, so iterating over the codes in use with this
+     * method is proportional to the number of codes in use, not to the number of codes.
+     *
+     * @return the next request code in use, or -1 if there is none
+     */
+    int nextUsed(int fromRequestCode) {
+        if (fromRequestCode < 0) {
+            fromRequestCode = 0;
+        }
+
+        for (int word = fromRequestCode / Long.SIZE; word < WORD_COUNT; word++) {
+            long bits = usedCodes.get(word);
+            if (word == fromRequestCode / Long.SIZE) {
+                bits &= -1L << (fromRequestCode % Long.SIZE);
+            }
+
+            if (bits != 0) {
+                return word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * The number of request codes currently in use.
+     */
+    int size() {
+        int size = 0;
+        for (int word = 0; word < WORD_COUNT; word++) {
+            size += Long.bitCount(usedCodes.get(word));
+        }
+
+        return size;
+    }
+
+    private static void checkRange(int requestCode) {
+        if (requestCode < 0 || requestCode >= REQUEST_CODE_COUNT) {
+            throw new IllegalArgumentException("The requestCode must be between 0 and " + (REQUEST_CODE_COUNT - 1) + ", was " + requestCode);
+        }
+    }
+}
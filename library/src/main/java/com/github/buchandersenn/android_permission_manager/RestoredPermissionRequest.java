@@ -0,0 +1,43 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Stands in for a pending request restored from the saved instance state, until a request
+ * with the same key is made and takes over its request code - or its result, if the result
+ * arrived first.
+ */
+class RestoredPermissionRequest extends PermissionRequest {
+    private volatile PermissionResult answer;
+
+    RestoredPermissionRequest(@NonNull PermissionManager permissionManager, @NonNull String[] permissions, @NonNull String key, int requestCode) {
+        super(permissionManager, permissions, requestCode, null, null, null);
+        setKey(key);
+        setDispatchedRequestCode(requestCode);
+
+        // The time the request was sent to the system is lost with the host, so its age is
+        // counted from the restore...
+        setDispatchedAtNanos(System.nanoTime());
+    }
+
+    /**
+     * Get the result of the request, or null if it hasn't arrived yet.
+     */
+    PermissionResult getAnswer() {
+        return answer;
+    }
+
+    void setAnswer(PermissionResult answer) {
+        this.answer = answer;
+    }
+
+    /**
+     * A restored request only stands in for the request made before the host was recreated,
+     * and its result is handed to the request that binds to it, so other requests can't wait
+     * for its result. They are requested on their own instead.
+     */
+    @Override
+    synchronized boolean addWaiter(@NonNull PermissionRequest waiter) {
+        return false;
+    }
+}
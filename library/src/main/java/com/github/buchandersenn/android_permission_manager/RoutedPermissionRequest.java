@@ -0,0 +1,15 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Stands in for a request made by {@link PermissionManager#requestPermissions(int, PermissionSet)},
+ * whose result is routed by the caller, using the request code, instead of being delivered
+ * to callbacks.
+ */
+class RoutedPermissionRequest extends PermissionRequest {
+    RoutedPermissionRequest(@NonNull PermissionManager permissionManager, @NonNull PermissionSet permissions, int requestCode) {
+        super(permissionManager, permissions.getPermissions(), requestCode, null, null, null);
+        setPermissionSet(permissions);
+    }
+}
@@ -0,0 +1,282 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An in-memory {@link PermissionBackend} that simulates the Android permission system, so that
+ * a PermissionManager can be run - and its throughput, latency and correctness measured - on a
+ * plain JVM without a device.
+ * <p>
+ * The answer of the simulated user is decided by a {@link GrantPolicy}. A granted permission
+ * stays granted, while a denied permission will show a rationale the next time, just like on a
+ * device. Each simulated platform call can be given a latency, to mimic the cost of the binder
+ * call, and results can be delivered asynchronously on an executor after a delay, to mimic the
+ * time the user takes to answer the dialog.
+ * <pre>
+ * SimulatedPermissionBackend backend = new SimulatedPermissionBackend()
+ *         .setGrantPolicy(SimulatedPermissionBackend.grantWithProbability(0.8, 42))
+ *         .setBinderLatency(50, TimeUnit.MICROSECONDS)
+ *         .setResultExecutor(Executors.newFixedThreadPool(4));
+ * PermissionManager permissionManager = backend.createPermissionManager();
+ * </pre>
+ */
+public class SimulatedPermissionBackend implements PermissionBackend {
+    /**
+     * Decides how the simulated user answers a request for a permission that isn't granted.
+     */
+    public interface GrantPolicy {
+        boolean grant(@NonNull String permission);
+    }
+
+    public static final GrantPolicy GRANT_ALL = new GrantPolicy() {
+        @Override
+        public boolean grant(@NonNull String permission) {
+            return true;
+        }
+    };
+
+    public static final GrantPolicy DENY_ALL = new GrantPolicy() {
+        @Override
+        public boolean grant(@NonNull String permission) {
+            return false;
+        }
+    };
+
+    /**
+     * Grant each permission with the given probability, using a random generator with
+     * the given seed, so that a simulation can be repeated.
+     */
+    public static GrantPolicy grantWithProbability(final double probability, long seed) {
+        final Random random = new Random(seed);
+        return new GrantPolicy() {
+            @Override
+            public boolean grant(@NonNull String permission) {
+                synchronized (random) {
+                    return random.nextDouble() < probability;
+                }
+            }
+        };
+    }
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    private final ConcurrentHashMap<String, Boolean> grantedPermissions = new ConcurrentHashMap<>();
+    private final Set<String> rationalePermissions = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final AtomicLong checkCount = new AtomicLong();
+    private final AtomicLong rationaleCount = new AtomicLong();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong resultCount = new AtomicLong();
+
+    private volatile PermissionManager permissionManager;
+    private volatile GrantPolicy grantPolicy = GRANT_ALL;
+    private volatile long binderLatencyNanos;
+    private volatile long resultDelayNanos;
+    private volatile Executor resultExecutor;
+    private volatile Executor callbackExecutor = DIRECT_EXECUTOR;
+
+    /**
+     * Create a PermissionManager using this backend. Results of simulated requests
+     * are delivered to the latest PermissionManager created.
+     */
+    @NonNull
+    public PermissionManager createPermissionManager() {
+        PermissionManager manager = PermissionManager.create(this);
+        permissionManager = manager;
+        return manager;
+    }
+
+    public SimulatedPermissionBackend setGrantPolicy(@NonNull GrantPolicy grantPolicy) {
+        this.grantPolicy = grantPolicy;
+        return this;
+    }
+
+    /**
+     * Set the time each simulated platform call takes.
+     */
+    public SimulatedPermissionBackend setBinderLatency(long latency, @NonNull TimeUnit unit) {
+        this.binderLatencyNanos = unit.toNanos(latency);
+        return this;
+    }
+
+    /**
+     * Set the executor delivering the results of requests, or null to deliver
+     * results synchronously from {@link #requestPermissions(int, String[])}.
+     */
+    public SimulatedPermissionBackend setResultExecutor(@Nullable Executor resultExecutor) {
+        this.resultExecutor = resultExecutor;
+        return this;
+    }
+
+    /**
+     * Set the time the simulated user takes to answer a request.
+     */
+    public SimulatedPermissionBackend setResultDelay(long delay, @NonNull TimeUnit unit) {
+        this.resultDelayNanos = unit.toNanos(delay);
+        return this;
+    }
+
+    /**
+     * Set the executor firing the callbacks of asynchronous checks and requests. By default
+     * the callbacks are fired directly on the thread completing the evaluation.
+     */
+    public SimulatedPermissionBackend setCallbackExecutor(@NonNull Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+        return this;
+    }
+
+    public SimulatedPermissionBackend setGranted(@NonNull String permission, boolean granted) {
+        grantedPermissions.put(permission, granted);
+        return this;
+    }
+
+    public SimulatedPermissionBackend setShouldShowRationale(@NonNull String permission, boolean showRationale) {
+        if (showRationale) {
+            rationalePermissions.add(permission);
+        } else {
+            rationalePermissions.remove(permission);
+        }
+        return this;
+    }
+
+    public boolean isGranted(@NonNull String permission) {
+        return Boolean.TRUE.equals(grantedPermissions.get(permission));
+    }
+
+    /**
+     * Revoke all permissions and clear all rationale states.
+     */
+    public void reset() {
+        grantedPermissions.clear();
+        rationalePermissions.clear();
+    }
+
+    @Nullable
+    @Override
+    public Context getContext() {
+        return null;
+    }
+
+    @Override
+    public boolean checkPermission(@NonNull String permission) {
+        simulateLatency(binderLatencyNanos);
+        checkCount.incrementAndGet();
+        return isGranted(permission);
+    }
+
+    @Override
+    public boolean shouldShowPermissionRationale(@NonNull String permission) {
+        simulateLatency(binderLatencyNanos);
+        rationaleCount.incrementAndGet();
+        return rationalePermissions.contains(permission);
+    }
+
+    @Override
+    public void requestPermissions(final int requestCode, @NonNull final String[] permissions) {
+        simulateLatency(binderLatencyNanos);
+        requestCount.incrementAndGet();
+
+        Runnable delivery = new Runnable() {
+            @Override
+            public void run() {
+                simulateLatency(resultDelayNanos);
+                int[] grantResults = answer(permissions);
+                resultCount.incrementAndGet();
+
+                PermissionManager manager = permissionManager;
+                if (manager != null) {
+                    manager.handlePermissionResult(requestCode, permissions, grantResults);
+                }
+            }
+        };
+
+        Executor executor = resultExecutor;
+        if (executor == null) {
+            delivery.run();
+        } else {
+            executor.execute(delivery);
+        }
+    }
+
+    @NonNull
+    @Override
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    /**
+     * The number of simulated checkSelfPermission calls.
+     */
+    public long getCheckCount() {
+        return checkCount.get();
+    }
+
+    /**
+     * The number of simulated shouldShowRequestPermissionRationale calls.
+     */
+    public long getRationaleCount() {
+        return rationaleCount.get();
+    }
+
+    /**
+     * The number of simulated requestPermissions calls, i.e. permission dialogs.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * The number of results delivered to the PermissionManager.
+     */
+    public long getResultCount() {
+        return resultCount.get();
+    }
+
+    private int[] answer(String[] permissions) {
+        GrantPolicy policy = grantPolicy;
+        int[] grantResults = new int[permissions.length];
+        for (int i = 0; i < permissions.length; i++) {
+            String permission = permissions[i];
+            if (isGranted(permission) || policy.grant(permission)) {
+                grantedPermissions.put(permission, true);
+                rationalePermissions.remove(permission);
+                grantResults[i] = PackageManager.PERMISSION_GRANTED;
+            } else {
+                rationalePermissions.add(permission);
+                grantResults[i] = PackageManager.PERMISSION_DENIED;
+            }
+        }
+
+        return grantResults;
+    }
+
+    private static void simulateLatency(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+
+        long deadline = System.nanoTime() + nanos;
+        long remaining = nanos;
+        while (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            remaining = deadline - System.nanoTime();
+        }
+    }
+}
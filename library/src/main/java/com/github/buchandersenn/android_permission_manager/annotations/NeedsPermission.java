@@ -0,0 +1,19 @@
+package com.github.buchandersenn.android_permission_manager.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method that needs the given permissions. The compiler module generates a
+ * &lt;Host&gt;PermissionDispatcher class with a &lt;method&gt;WithPermissionCheck() method,
+ * which calls the marked method once the permissions are granted.
+ * <p>
+ * The method must not be private or static, must return void and must take no arguments.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.CLASS)
+public @interface NeedsPermission {
+    String[] value();
+}
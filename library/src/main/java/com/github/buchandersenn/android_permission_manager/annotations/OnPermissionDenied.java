@@ -0,0 +1,16 @@
+package com.github.buchandersenn.android_permission_manager.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the method called when the permissions of the {@link NeedsPermission} method with
+ * the same permissions are denied.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.CLASS)
+public @interface OnPermissionDenied {
+    String[] value();
+}
@@ -0,0 +1,17 @@
+package com.github.buchandersenn.android_permission_manager.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the method called when a rationale should be shown for the permissions of the
+ * {@link NeedsPermission} method with the same permissions. Once the user has accepted the
+ * rationale, call the proceed&lt;method&gt;() method of the generated dispatcher.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.CLASS)
+public @interface OnShowRationale {
+    String[] value();
+}
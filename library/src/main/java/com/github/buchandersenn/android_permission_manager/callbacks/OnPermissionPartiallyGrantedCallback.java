@@ -0,0 +1,5 @@
+package com.github.buchandersenn.android_permission_manager.callbacks;
+
+public interface OnPermissionPartiallyGrantedCallback {
+    void onPermissionPartiallyGranted(String[] grantedPermissions, String[] deniedPermissions);
+}
@@ -0,0 +1,5 @@
+package com.github.buchandersenn.android_permission_manager.callbacks;
+
+public interface OnPermissionStateChangedCallback {
+    void onPermissionStateChanged(String permission, boolean granted);
+}
@@ -15,212 +15,349 @@ import android.view.View;
 
 import com.github.buchandersenn.android_permission_manager.PermissionRequest;
 
+import java.util.Arrays;
+
 public class PermissionCallbacks {
 
-    public static OnPermissionGrantedCallback doAll(final OnPermissionGrantedCallback... grantedCallbacks) {
-        return new OnPermissionGrantedCallback() {
-            @Override
-            public void onPermissionGranted() {
-                for (OnPermissionGrantedCallback callback : grantedCallbacks) {
-                    callback.onPermissionGranted();
-                }
-            }
-        };
+    /**
+     * Combine the given callbacks into one, calling them in order. Nested doAll() callbacks are
+     * flattened into a single array and null callbacks are left out, so that dispatching doesn't
+     * depend on how the callbacks were nested. A single remaining callback is returned as is.
+     */
+    public static OnPermissionGrantedCallback doAll(OnPermissionGrantedCallback... grantedCallbacks) {
+        OnPermissionGrantedCallback[] callbacks = flatten(grantedCallbacks);
+        return callbacks.length == 1 ? callbacks[0] : new CompositeGrantedCallback(callbacks);
     }
 
-    public static OnPermissionGrantedCallback setPermissionGrantedViewVisibility(@NonNull final View view, final int visibility) {
-        return new OnPermissionGrantedCallback() {
-            @Override
-            public void onPermissionGranted() {
-                view.setVisibility(visibility);
-            }
-        };
+    public static OnPermissionGrantedCallback setPermissionGrantedViewVisibility(@NonNull View view, int visibility) {
+        return new ViewVisibilityCallback(view, visibility);
     }
 
-    public static OnPermissionGrantedCallback setPermissionGrantedViewEnabled(@NonNull final View view, final boolean enabled) {
-        return new OnPermissionGrantedCallback() {
-            @Override
-            public void onPermissionGranted() {
-                view.setEnabled(enabled);
-            }
-        };
-    }
-
-    public static  OnPermissionGrantedCallback showPermissionGrantedFragment(final FragmentManager fragmentManager, @IdRes final int viewId, final Fragment fragment, final boolean addToBackStack) {
-        return new OnPermissionGrantedCallback() {
-            @Override
-            public void onPermissionGranted() {
-                FragmentTransaction fragmentTransaction = fragmentManager.beginTransaction();
-                fragmentTransaction.setTransition(FragmentTransaction.TRANSIT_FRAGMENT_FADE);
-                fragmentTransaction.replace(viewId, fragment);
-                if (addToBackStack) {
-                    fragmentTransaction.addToBackStack(null);
-                }
-                fragmentTransaction.commit();
-            }
-        };
+    public static OnPermissionGrantedCallback setPermissionGrantedViewEnabled(@NonNull View view, boolean enabled) {
+        return new ViewEnabledCallback(view, enabled);
     }
 
-    public static  OnPermissionGrantedCallback startPermissionGrantedActivity(final Context context, final Intent activityIntent) {
-        return new OnPermissionGrantedCallback() {
-            @Override
-            public void onPermissionGranted() {
-                context.startActivity(activityIntent);
-            }
-        };
+    public static  OnPermissionGrantedCallback showPermissionGrantedFragment(FragmentManager fragmentManager, @IdRes int viewId, Fragment fragment, boolean addToBackStack) {
+        return new ReplaceFragmentCallback(fragmentManager, viewId, fragment, addToBackStack);
     }
 
-    public static OnPermissionDeniedCallback doAll(final OnPermissionDeniedCallback... deniedCallbacks) {
-        return new OnPermissionDeniedCallback() {
-            @Override
-            public void onPermissionDenied() {
-                for (OnPermissionDeniedCallback callback : deniedCallbacks) {
-                    callback.onPermissionDenied();
-                }
-            }
-        };
+    public static  OnPermissionGrantedCallback startPermissionGrantedActivity(Context context, Intent activityIntent) {
+        return new StartActivityCallback(context, activityIntent);
     }
 
-    public static OnPermissionDeniedCallback setPermissionDeniedViewVisibility(@NonNull final View view, final int visibility) {
-        return new OnPermissionDeniedCallback() {
-            @Override
-            public void onPermissionDenied() {
-                view.setVisibility(visibility);
-            }
-        };
+    public static OnPermissionDeniedCallback doAll(OnPermissionDeniedCallback... deniedCallbacks) {
+        OnPermissionDeniedCallback[] callbacks = flatten(deniedCallbacks);
+        return callbacks.length == 1 ? callbacks[0] : new CompositeDeniedCallback(callbacks);
     }
 
-    public static OnPermissionDeniedCallback setPermissionDeniedViewEnabled(@NonNull final View view, final boolean enabled) {
-        return new OnPermissionDeniedCallback() {
-            @Override
-            public void onPermissionDenied() {
-                view.setEnabled(enabled);
-            }
-        };
+    public static OnPermissionDeniedCallback setPermissionDeniedViewVisibility(@NonNull View view, int visibility) {
+        return new ViewVisibilityCallback(view, visibility);
     }
 
-    public static OnPermissionDeniedCallback showPermissionDeniedSnackbar(@NonNull final View view, final CharSequence text, final CharSequence buttonText) {
-        return new OnPermissionDeniedCallback() {
-            @Override
-            public void onPermissionDenied() {
-                Snackbar.make(view, text, Snackbar.LENGTH_INDEFINITE)
-                        .setAction(buttonText, new SettingsButtonClickListener())
-                        .show();
-            }
-        };
+    public static OnPermissionDeniedCallback setPermissionDeniedViewEnabled(@NonNull View view, boolean enabled) {
+        return new ViewEnabledCallback(view, enabled);
+    }
+
+    public static OnPermissionDeniedCallback showPermissionDeniedSnackbar(@NonNull View view, CharSequence text, CharSequence buttonText) {
+        return new SettingsSnackbarCallback(new SnackbarSpec(view, text, 0, buttonText, 0));
+    }
+
+    public static OnPermissionDeniedCallback showPermissionDeniedSnackbar(@NonNull View view, @StringRes int textResId, @StringRes int buttonTextResId) {
+        return new SettingsSnackbarCallback(new SnackbarSpec(view, null, textResId, null, buttonTextResId));
+    }
+
+    public static  OnPermissionDeniedCallback showPermissionDeniedFragment(FragmentManager fragmentManager, @IdRes int viewId, Fragment fragment, boolean addToBackStack) {
+        return new ReplaceFragmentCallback(fragmentManager, viewId, fragment, addToBackStack);
+    }
+
+    public static  OnPermissionDeniedCallback startPermissionDeniedActivity(Context context, Intent activityIntent) {
+        return new StartActivityCallback(context, activityIntent);
+    }
+
+    public static OnPermissionPartiallyGrantedCallback doAll(OnPermissionPartiallyGrantedCallback... partiallyGrantedCallbacks) {
+        OnPermissionPartiallyGrantedCallback[] callbacks = flatten(partiallyGrantedCallbacks);
+        return callbacks.length == 1 ? callbacks[0] : new CompositePartiallyGrantedCallback(callbacks);
+    }
+
+    public static OnPermissionShowRationaleCallback doAll(OnPermissionShowRationaleCallback... showRationaleCallbacks) {
+        OnPermissionShowRationaleCallback[] callbacks = flatten(showRationaleCallbacks);
+        return callbacks.length == 1 ? callbacks[0] : new CompositeShowRationaleCallback(callbacks);
+    }
+
+    public static OnPermissionShowRationaleCallback setPermissionShowRationaleViewVisibility(@NonNull View view, int visibility) {
+        return new ViewVisibilityCallback(view, visibility);
+    }
+
+    public static OnPermissionShowRationaleCallback setPermissionShowRationaleViewEnabled(@NonNull View view, boolean enabled) {
+        return new ViewEnabledCallback(view, enabled);
+    }
+
+    public static OnPermissionShowRationaleCallback showPermissionShowRationaleSnackbar(@NonNull View view, CharSequence text, CharSequence buttonText) {
+        return new RationaleSnackbarCallback(new SnackbarSpec(view, text, 0, buttonText, 0));
     }
 
-    public static OnPermissionDeniedCallback showPermissionDeniedSnackbar(@NonNull final View view, @StringRes final int textResId, @StringRes final int buttonTextResId) {
-        return new OnPermissionDeniedCallback() {
-            @Override
-            public void onPermissionDenied() {
-                Snackbar.make(view, textResId, Snackbar.LENGTH_INDEFINITE)
-                        .setAction(buttonTextResId, new SettingsButtonClickListener())
-                        .show();
+    public static OnPermissionShowRationaleCallback showPermissionShowRationaleSnackbar(@NonNull View view, @StringRes int textResId, @StringRes int buttonTextResId) {
+        return new RationaleSnackbarCallback(new SnackbarSpec(view, null, textResId, null, buttonTextResId));
+    }
+
+    public static  OnPermissionShowRationaleCallback showPermissionRationaleFragment(FragmentManager fragmentManager, @IdRes int viewId, Fragment fragment, boolean addToBackStack) {
+        return new ReplaceFragmentCallback(fragmentManager, viewId, fragment, addToBackStack);
+    }
+
+    public static  OnPermissionShowRationaleCallback startPermissionShowRationaleActivity(Context context, Intent activityIntent) {
+        return new StartActivityCallback(context, activityIntent);
+    }
+
+    /**
+     * Copy the given callbacks into a new array, replacing doAll() callbacks with the callbacks
+     * they combine and leaving out null callbacks.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T[] flatten(T[] callbacks) {
+        int count = 0;
+        for (T callback : callbacks) {
+            if (callback instanceof CompositeCallback) {
+                count += ((CompositeCallback<?>) callback).callbacks.length;
+            } else if (callback != null) {
+                count++;
             }
-        };
-    }
-
-    public static  OnPermissionDeniedCallback showPermissionDeniedFragment(final FragmentManager fragmentManager, @IdRes final int viewId, final Fragment fragment, final boolean addToBackStack) {
-        return new OnPermissionDeniedCallback() {
-            @Override
-            public void onPermissionDenied() {
-                FragmentTransaction fragmentTransaction = fragmentManager.beginTransaction();
-                fragmentTransaction.setTransition(FragmentTransaction.TRANSIT_FRAGMENT_FADE);
-                fragmentTransaction.replace(viewId, fragment);
-                if (addToBackStack) {
-                    fragmentTransaction.addToBackStack(null);
+        }
+
+        // Composites are flattened when they are created, so one level is all there is...
+        T[] flattened = Arrays.copyOf(callbacks, count);
+        int index = 0;
+        for (T callback : callbacks) {
+            if (callback instanceof CompositeCallback) {
+                for (Object nestedCallback : ((CompositeCallback<?>) callback).callbacks) {
+                    flattened[index++] = (T) nestedCallback;
                 }
-                fragmentTransaction.commit();
+            } else if (callback != null) {
+                flattened[index++] = callback;
             }
-        };
+        }
+
+        return flattened;
     }
 
-    public static  OnPermissionDeniedCallback startPermissionDeniedActivity(final Context context, final Intent activityIntent) {
-        return new OnPermissionDeniedCallback() {
-            @Override
-            public void onPermissionDenied() {
-                context.startActivity(activityIntent);
-            }
-        };
+    private abstract static class CompositeCallback<T> {
+        final T[] callbacks;
+
+        CompositeCallback(T[] callbacks) {
+            this.callbacks = callbacks;
+        }
     }
 
-    public static OnPermissionShowRationaleCallback doAll(final OnPermissionShowRationaleCallback... showRationaleCallbacks) {
-        return new OnPermissionShowRationaleCallback() {
-            @Override
-            public void onPermissionShowRationale(PermissionRequest permissionRequest) {
-                for (OnPermissionShowRationaleCallback callback : showRationaleCallbacks) {
-                    callback.onPermissionShowRationale(permissionRequest);
-                }
+    private static class CompositeGrantedCallback extends CompositeCallback<OnPermissionGrantedCallback> implements OnPermissionGrantedCallback {
+        CompositeGrantedCallback(OnPermissionGrantedCallback[] callbacks) {
+            super(callbacks);
+        }
+
+        @Override
+        public void onPermissionGranted() {
+            for (OnPermissionGrantedCallback callback : callbacks) {
+                callback.onPermissionGranted();
             }
-        };
+        }
     }
 
-    public static OnPermissionShowRationaleCallback setPermissionShowRationaleViewVisibility(@NonNull final View view, final int visibility) {
-        return new OnPermissionShowRationaleCallback() {
-            @Override
-            public void onPermissionShowRationale(PermissionRequest permissionRequest) {
-                view.setVisibility(visibility);
+    private static class CompositeDeniedCallback extends CompositeCallback<OnPermissionDeniedCallback> implements OnPermissionDeniedCallback {
+        CompositeDeniedCallback(OnPermissionDeniedCallback[] callbacks) {
+            super(callbacks);
+        }
+
+        @Override
+        public void onPermissionDenied() {
+            for (OnPermissionDeniedCallback callback : callbacks) {
+                callback.onPermissionDenied();
             }
-        };
+        }
     }
 
-    public static OnPermissionShowRationaleCallback setPermissionShowRationaleViewEnabled(@NonNull final View view, final boolean enabled) {
-        return new OnPermissionShowRationaleCallback() {
-            @Override
-            public void onPermissionShowRationale(PermissionRequest permissionRequest) {
-                view.setEnabled(enabled);
+    private static class CompositePartiallyGrantedCallback extends CompositeCallback<OnPermissionPartiallyGrantedCallback> implements OnPermissionPartiallyGrantedCallback {
+        CompositePartiallyGrantedCallback(OnPermissionPartiallyGrantedCallback[] callbacks) {
+            super(callbacks);
+        }
+
+        @Override
+        public void onPermissionPartiallyGranted(String[] grantedPermissions, String[] deniedPermissions) {
+            for (OnPermissionPartiallyGrantedCallback callback : callbacks) {
+                callback.onPermissionPartiallyGranted(grantedPermissions, deniedPermissions);
             }
-        };
+        }
     }
 
-    public static OnPermissionShowRationaleCallback showPermissionShowRationaleSnackbar(@NonNull final View view, final CharSequence text, final CharSequence buttonText) {
-        return new OnPermissionShowRationaleCallback() {
-            @Override
-            public void onPermissionShowRationale(PermissionRequest permissionRequest) {
-                Snackbar.make(view, text, Snackbar.LENGTH_INDEFINITE)
-                        .setAction(buttonText, new RationaleButtonClickListener(permissionRequest))
-                        .show();
+    private static class CompositeShowRationaleCallback extends CompositeCallback<OnPermissionShowRationaleCallback> implements OnPermissionShowRationaleCallback {
+        CompositeShowRationaleCallback(OnPermissionShowRationaleCallback[] callbacks) {
+            super(callbacks);
+        }
+
+        @Override
+        public void onPermissionShowRationale(PermissionRequest permissionRequest) {
+            for (OnPermissionShowRationaleCallback callback : callbacks) {
+                callback.onPermissionShowRationale(permissionRequest);
             }
-        };
+        }
     }
 
-    public static OnPermissionShowRationaleCallback showPermissionShowRationaleSnackbar(@NonNull final View view, @StringRes final int textResId, @StringRes final int buttonTextResId) {
-        return new OnPermissionShowRationaleCallback() {
-            @Override
-            public void onPermissionShowRationale(PermissionRequest permissionRequest) {
-                Snackbar.make(view, textResId, Snackbar.LENGTH_INDEFINITE)
-                        .setAction(buttonTextResId, new RationaleButtonClickListener(permissionRequest))
-                        .show();
-            }
-        };
-    }
-
-    public static  OnPermissionShowRationaleCallback showPermissionRationaleFragment(final FragmentManager fragmentManager, @IdRes final int viewId, final Fragment fragment, final boolean addToBackStack) {
-        return new OnPermissionShowRationaleCallback() {
-            @Override
-            public void onPermissionShowRationale(PermissionRequest permissionRequest) {
-                FragmentTransaction fragmentTransaction = fragmentManager.beginTransaction();
-                fragmentTransaction.setTransition(FragmentTransaction.TRANSIT_FRAGMENT_FADE);
-                fragmentTransaction.replace(viewId, fragment);
-                if (addToBackStack) {
-                    fragmentTransaction.addToBackStack(null);
-                }
-                fragmentTransaction.commit();
+    /**
+     * The UI callbacks have the same effect whatever the outcome, so each is a single class
+     * implementing all the outcome callbacks. The effect is applied through
+     * {@link UiEffect#dispatch()}, so that it can be batched by {@link PermissionUiBatcher}.
+     */
+    private abstract static class UiEffectCallback extends UiEffect implements OnPermissionGrantedCallback, OnPermissionDeniedCallback, OnPermissionShowRationaleCallback {
+        @Override
+        public void onPermissionGranted() {
+            dispatch();
+        }
+
+        @Override
+        public void onPermissionDenied() {
+            dispatch();
+        }
+
+        @Override
+        public void onPermissionShowRationale(PermissionRequest permissionRequest) {
+            dispatch();
+        }
+    }
+
+    private static class ViewVisibilityCallback extends UiEffectCallback {
+        private final @NonNull View view;
+        private final int visibility;
+
+        ViewVisibilityCallback(@NonNull View view, int visibility) {
+            this.view = view;
+            this.visibility = visibility;
+        }
+
+        @Override
+        void apply() {
+            view.setVisibility(visibility);
+        }
+    }
+
+    private static class ViewEnabledCallback extends UiEffectCallback {
+        private final @NonNull View view;
+        private final boolean enabled;
+
+        ViewEnabledCallback(@NonNull View view, boolean enabled) {
+            this.view = view;
+            this.enabled = enabled;
+        }
+
+        @Override
+        void apply() {
+            view.setEnabled(enabled);
+        }
+    }
+
+    /**
+     * Package-private, as {@link PermissionUiBatcher} merges the replacements of a batch.
+     */
+    static class ReplaceFragmentCallback extends UiEffectCallback {
+        final FragmentManager fragmentManager;
+        final @IdRes int viewId;
+        final Fragment fragment;
+        final boolean addToBackStack;
+
+        ReplaceFragmentCallback(FragmentManager fragmentManager, @IdRes int viewId, Fragment fragment, boolean addToBackStack) {
+            this.fragmentManager = fragmentManager;
+            this.viewId = viewId;
+            this.fragment = fragment;
+            this.addToBackStack = addToBackStack;
+        }
+
+        @Override
+        void apply() {
+            FragmentTransaction fragmentTransaction = fragmentManager.beginTransaction();
+            fragmentTransaction.setTransition(FragmentTransaction.TRANSIT_FRAGMENT_FADE);
+            fragmentTransaction.replace(viewId, fragment);
+            if (addToBackStack) {
+                fragmentTransaction.addToBackStack(null);
             }
-        };
+            fragmentTransaction.commit();
+        }
+    }
+
+    private static class StartActivityCallback extends UiEffectCallback {
+        private final Context context;
+        private final Intent activityIntent;
+
+        StartActivityCallback(Context context, Intent activityIntent) {
+            this.context = context;
+            this.activityIntent = activityIntent;
+        }
+
+        @Override
+        void apply() {
+            context.startActivity(activityIntent);
+        }
     }
 
-    public static  OnPermissionShowRationaleCallback startPermissionShowRationaleActivity(final Context context, final Intent activityIntent) {
-        return new OnPermissionShowRationaleCallback() {
-            @Override
-            public void onPermissionShowRationale(PermissionRequest permissionRequest) {
-                context.startActivity(activityIntent);
+    /**
+     * The view and texts of a snackbar, given either as strings or as string resources.
+     */
+    private static class SnackbarSpec {
+        private final @NonNull View view;
+        private final CharSequence text;
+        private final @StringRes int textResId;
+        private final CharSequence buttonText;
+        private final @StringRes int buttonTextResId;
+
+        SnackbarSpec(@NonNull View view, CharSequence text, @StringRes int textResId, CharSequence buttonText, @StringRes int buttonTextResId) {
+            this.view = view;
+            this.text = text;
+            this.textResId = textResId;
+            this.buttonText = buttonText;
+            this.buttonTextResId = buttonTextResId;
+        }
+
+        void show(View.OnClickListener buttonListener) {
+            Snackbar snackbar = textResId == 0
+                    ? Snackbar.make(view, text, Snackbar.LENGTH_INDEFINITE)
+                    : Snackbar.make(view, textResId, Snackbar.LENGTH_INDEFINITE);
+            if (buttonTextResId == 0) {
+                snackbar.setAction(buttonText, buttonListener);
+            } else {
+                snackbar.setAction(buttonTextResId, buttonListener);
             }
-        };
+            snackbar.show();
+        }
+    }
+
+    private static class SettingsSnackbarCallback extends UiEffectCallback {
+        private final SnackbarSpec snackbar;
+
+        SettingsSnackbarCallback(SnackbarSpec snackbar) {
+            this.snackbar = snackbar;
+        }
+
+        @Override
+        void apply() {
+            snackbar.show(SettingsButtonClickListener.INSTANCE);
+        }
     }
 
+    private static class RationaleSnackbarCallback implements OnPermissionShowRationaleCallback {
+        private final SnackbarSpec snackbar;
+
+        RationaleSnackbarCallback(SnackbarSpec snackbar) {
+            this.snackbar = snackbar;
+        }
+
+        @Override
+        public void onPermissionShowRationale(PermissionRequest permissionRequest) {
+            new RationaleButtonClickListener(snackbar, permissionRequest).dispatch();
+        }
+    }
+
+    /**
+     * The listener is stateless, so a single instance is shared by all snackbars. It is kept in
+     * a holder class, so that it is only created once a snackbar is shown.
+     */
     private static class SettingsButtonClickListener implements  View.OnClickListener {
+        static final SettingsButtonClickListener INSTANCE = new SettingsButtonClickListener();
+
         @Override
         public void onClick(View v) {
             Context context = v.getContext();
@@ -233,13 +370,24 @@ public class PermissionCallbacks {
         }
     }
 
-    private static class RationaleButtonClickListener implements View.OnClickListener {
+    /**
+     * Shows the rationale snackbar of a request, and accepts the rationale when its button
+     * is clicked.
+     */
+    private static class RationaleButtonClickListener extends UiEffect implements View.OnClickListener {
+        private final SnackbarSpec snackbar;
         private final PermissionRequest permissionRequest;
 
-        public RationaleButtonClickListener(PermissionRequest permissionRequest) {
+        public RationaleButtonClickListener(SnackbarSpec snackbar, PermissionRequest permissionRequest) {
+            this.snackbar = snackbar;
             this.permissionRequest = permissionRequest;
         }
 
+        @Override
+        void apply() {
+            snackbar.show(this);
+        }
+
         @Override
         public void onClick(View v) {
             permissionRequest.acceptPermissionRationale();
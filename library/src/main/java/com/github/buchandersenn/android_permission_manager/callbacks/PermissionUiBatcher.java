@@ -0,0 +1,196 @@
+package com.github.buchandersenn.android_permission_manager.callbacks;
+
+import android.app.FragmentManager;
+import android.app.FragmentTransaction;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Batches the UI side effects of the callbacks in {@link PermissionCallbacks}.
+ * <p>
+ * By default each callback applies its side effect at once, so a doAll() of several view
+ * callbacks, or several requests answered by the same permission result, can cause several
+ * layout passes and fragment transactions in the same frame. A PermissionManager with a batcher,
+ * set with {@code PermissionManager.setUiBatcher()}, collects the side effects of its callbacks
+ * instead, and they are applied together in a single post to the main looper.
+ * <p>
+ * The effects are applied in the order they were made. Consecutive fragment replacements of the
+ * same FragmentManager are merged into one transaction, keeping only the last replacement of each
+ * container, and the transaction is added to the back stack if any of the replacements asked for
+ * it. Once the host has saved its state, the transactions are committed allowing state loss, as
+ * a plain commit would throw.
+ * <p>
+ * Each batcher belongs to a single host, whose PermissionManager tells it when the state of the
+ * host is saved and drops the pending effects when the host is destroyed. Callbacks created
+ * outside of PermissionCallbacks are never batched.
+ */
+public final class PermissionUiBatcher {
+    private static final ThreadLocal<PermissionUiBatcher> CURRENT = new ThreadLocal<>();
+
+    private final Object lock = new Object();
+    private final FlushRunnable flushRunnable = new FlushRunnable(this);
+
+    private List<UiEffect> pendingEffects = new ArrayList<>();
+    private boolean flushPosted;
+    private volatile boolean stateSaved;
+
+    /**
+     * Make the given batcher collect the effects of the callbacks run on the current thread,
+     * until {@link #exit(PermissionUiBatcher)} is called. Used by PermissionManager while it runs
+     * the callbacks of its requests.
+     *
+     * @return the batcher collecting the effects before, to be passed to exit()
+     */
+    @Nullable
+    public static PermissionUiBatcher enter(@NonNull PermissionUiBatcher batcher) {
+        PermissionUiBatcher previous = CURRENT.get();
+        CURRENT.set(batcher);
+        return previous;
+    }
+
+    /**
+     * Restore the batcher returned by {@link #enter(PermissionUiBatcher)}.
+     */
+    public static void exit(@Nullable PermissionUiBatcher previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Get the batcher collecting the effects of the current thread, or null if the effects are
+     * applied at once.
+     */
+    @Nullable
+    static PermissionUiBatcher getCurrent() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Set whether the host has saved its state, i.e. whether fragment transactions must be
+     * committed allowing state loss. Called by the PermissionManager of an activity host.
+     */
+    public void setStateSaved(boolean stateSaved) {
+        this.stateSaved = stateSaved;
+    }
+
+    /**
+     * Queue the given effect, and post the batch to the main looper unless it has been posted
+     * already.
+     */
+    void post(@NonNull UiEffect effect) {
+        synchronized (lock) {
+            pendingEffects.add(effect);
+            if (flushPosted) {
+                return;
+            }
+            flushPosted = true;
+        }
+
+        FlushRunnable.HANDLER.post(flushRunnable);
+    }
+
+    /**
+     * Drop the pending effects without applying them, e.g. when the host is destroyed.
+     */
+    public void clear() {
+        synchronized (lock) {
+            pendingEffects = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Apply the pending effects at once, e.g. before the host is paused. Must be called
+     * on the main thread.
+     */
+    public void flush() {
+        List<UiEffect> effects;
+        synchronized (lock) {
+            if (pendingEffects.isEmpty()) {
+                return;
+            }
+            effects = pendingEffects;
+            pendingEffects = new ArrayList<>();
+        }
+
+        FragmentManager fragmentManager = null;
+        Map<Integer, PermissionCallbacks.ReplaceFragmentCallback> replacements = new LinkedHashMap<>();
+        for (UiEffect effect : effects) {
+            if (!(effect instanceof PermissionCallbacks.ReplaceFragmentCallback)) {
+                commit(fragmentManager, replacements);
+                fragmentManager = null;
+                effect.apply();
+                continue;
+            }
+
+            PermissionCallbacks.ReplaceFragmentCallback replacement = (PermissionCallbacks.ReplaceFragmentCallback) effect;
+            if (replacement.fragmentManager != fragmentManager) {
+                commit(fragmentManager, replacements);
+                fragmentManager = replacement.fragmentManager;
+            }
+
+            // The last replacement of a container wins, but keeps the position of the first...
+            replacements.put(replacement.viewId, replacement);
+        }
+        commit(fragmentManager, replacements);
+    }
+
+    /**
+     * Commit the given replacements in one transaction, and clear them.
+     */
+    private void commit(FragmentManager fragmentManager, Map<Integer, PermissionCallbacks.ReplaceFragmentCallback> replacements) {
+        if (replacements.isEmpty()) {
+            return;
+        }
+
+        FragmentTransaction fragmentTransaction = fragmentManager.beginTransaction();
+        fragmentTransaction.setTransition(FragmentTransaction.TRANSIT_FRAGMENT_FADE);
+
+        boolean addToBackStack = false;
+        for (PermissionCallbacks.ReplaceFragmentCallback replacement : replacements.values()) {
+            fragmentTransaction.replace(replacement.viewId, replacement.fragment);
+            addToBackStack |= replacement.addToBackStack;
+        }
+        if (addToBackStack) {
+            fragmentTransaction.addToBackStack(null);
+        }
+        if (stateSaved) {
+            fragmentTransaction.commitAllowingStateLoss();
+        } else {
+            fragmentTransaction.commit();
+        }
+
+        replacements.clear();
+    }
+
+    /**
+     * Kept in its own class, so that the main thread handler is only created once a batcher
+     * is.
+     */
+    private static class FlushRunnable implements Runnable {
+        static final Handler HANDLER = new Handler(Looper.getMainLooper());
+
+        private final PermissionUiBatcher batcher;
+
+        FlushRunnable(PermissionUiBatcher batcher) {
+            this.batcher = batcher;
+        }
+
+        @Override
+        public void run() {
+            synchronized (batcher.lock) {
+                batcher.flushPosted = false;
+            }
+            batcher.flush();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.github.buchandersenn.android_permission_manager.callbacks;
+
+/**
+ * A UI side effect of one of the callbacks in {@link PermissionCallbacks}, such as changing the
+ * visibility of a view or replacing a fragment.
+ */
+abstract class UiEffect {
+    abstract void apply();
+
+    /**
+     * Apply the effect now, or with the next batch if a {@link PermissionUiBatcher} is collecting
+     * the effects of the current thread.
+     */
+    final void dispatch() {
+        PermissionUiBatcher batcher = PermissionUiBatcher.getCurrent();
+        if (batcher != null) {
+            batcher.post(this);
+        } else {
+            apply();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FeatureGateTest {
+    private static final String CAMERA = "android.permission.CAMERA";
+    private static final String READ_CONTACTS = "android.permission.READ_CONTACTS";
+    private static final String READ_CALL_LOG = "android.permission.READ_CALL_LOG";
+
+    private final SimulatedPermissionBackend backend = new SimulatedPermissionBackend().setGranted(READ_CONTACTS, true);
+
+    @Test
+    public void checksEachPermissionOnceThroughTheCache() {
+        PermissionManager manager = backend.createPermissionManager();
+        manager.setPermissionStateCache(new PermissionStateCache());
+        FeatureGate featureGate = manager.createFeatureGate();
+        int contactsFeature = featureGate.addFeature(PermissionSet.of(READ_CONTACTS));
+        int callLogFeature = featureGate.addFeature(PermissionSet.of(READ_CONTACTS, READ_CALL_LOG));
+        int cameraFeature = featureGate.addFeature(PermissionSet.of(CAMERA, READ_CONTACTS));
+
+        long enabledFeatures = featureGate.evaluate();
+        assertTrue(FeatureGate.isEnabled(enabledFeatures, contactsFeature));
+        assertFalse(FeatureGate.isEnabled(enabledFeatures, callLogFeature));
+        assertFalse(FeatureGate.isEnabled(enabledFeatures, cameraFeature));
+        assertEquals(3, backend.getCheckCount());
+
+        // The second evaluation is served from the cache...
+        assertEquals(enabledFeatures, featureGate.evaluate());
+        assertEquals(enabledFeatures, featureGate.getEnabledFeatures());
+        assertEquals(3, backend.getCheckCount());
+    }
+
+    @Test
+    public void evaluatesMoreThan64Permissions() {
+        FeatureGate featureGate = backend.createPermissionManager().createFeatureGate();
+        String[] permissions = new String[PermissionResult.MAX_PERMISSIONS];
+        for (int i = 0; i < permissions.length; i++) {
+            permissions[i] = "test.permission.P" + i;
+            backend.setGranted(permissions[i], true);
+        }
+        int firstFeature = featureGate.addFeature(PermissionSet.of(permissions));
+        int contactsFeature = featureGate.addFeature(PermissionSet.of(READ_CONTACTS, permissions[0]));
+        int callLogFeature = featureGate.addFeature(PermissionSet.of(READ_CALL_LOG, permissions[63]));
+
+        long enabledFeatures = featureGate.evaluate();
+        assertTrue(FeatureGate.isEnabled(enabledFeatures, firstFeature));
+        assertTrue(FeatureGate.isEnabled(enabledFeatures, contactsFeature));
+        assertFalse(FeatureGate.isEnabled(enabledFeatures, callLogFeature));
+
+        backend.setGranted(READ_CALL_LOG, true);
+        assertTrue(FeatureGate.isEnabled(featureGate.evaluate(), callLogFeature));
+    }
+
+    @Test
+    public void checksPermissionsOutsideTheGateLock() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final FeatureGate[] featureGate = new FeatureGate[1];
+        SimulatedPermissionBackend blockingBackend = new SimulatedPermissionBackend() {
+            @Override
+            public boolean checkPermission(String permission) {
+                // Another thread can use the gate while a permission is being checked...
+                try {
+                    executor.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() {
+                            return featureGate[0].getFeatureCount();
+                        }
+                    }).get(10, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+                return super.checkPermission(permission);
+            }
+        };
+
+        try {
+            featureGate[0] = blockingBackend.createPermissionManager().createFeatureGate();
+            featureGate[0].addFeature(PermissionSet.of(CAMERA));
+            assertEquals(0, featureGate[0].evaluate());
+            assertEquals(1, blockingBackend.getCheckCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PendingRequestRecordTest {
+    private static final String CAMERA = "android.permission.CAMERA";
+    private static final String READ_CONTACTS = "android.permission.READ_CONTACTS";
+    private static final String CUSTOM = "com.example.permission.CUSTOM";
+
+    private final PermissionManager manager = new SimulatedPermissionBackend().createPermissionManager();
+
+    @Test
+    public void decodesWhatWasEncoded() {
+        // A pending request on a borrowed request code, with one permission already granted...
+        String[] permissions = {CAMERA, READ_CONTACTS, CUSTOM};
+        PermissionRequest pending = new PermissionRequest(manager, permissions, -1, null, null, null);
+        pending.setKey("pending");
+        pending.setDispatchedRequestCode(PermissionRequestRegistry.MAX_REQUEST_CODE);
+        pending.setPermissionResult(new PermissionResult(permissions, 0b010L, 0));
+        pending.setDispatchedPermissions(new String[]{CAMERA, CUSTOM});
+
+        // ...and a restored request whose result arrived before it was bound...
+        RestoredPermissionRequest answered = newAnsweredRequest();
+
+        List<RestoredPermissionRequest> requests = PendingRequestRecord.decode(manager, PendingRequestRecord.encode(Arrays.<PermissionRequest>asList(pending, answered)));
+
+        assertEquals(2, requests.size());
+        RestoredPermissionRequest restored = requests.get(0);
+        assertEquals("pending", restored.getKey());
+        assertEquals(PermissionRequestRegistry.MAX_REQUEST_CODE, restored.getDispatchedRequestCode());
+        assertArrayEquals(permissions, restored.getPermissions());
+        assertArrayEquals(new String[]{CAMERA, CUSTOM}, restored.getDispatchedPermissions());
+        assertEquals(0b010L, restored.getPermissionResult().getGrantedMask());
+        assertNull(restored.getAnswer());
+
+        restored = requests.get(1);
+        assertEquals("answered", restored.getKey());
+        assertEquals(7, restored.getDispatchedRequestCode());
+        assertTrue(restored.getAnswer().isGranted());
+    }
+
+    @Test
+    public void ignoresRecordsOfAnUnknownVersion() {
+        RestoredPermissionRequest answered = newAnsweredRequest();
+        byte[] record = PendingRequestRecord.encode(Arrays.<PermissionRequest>asList(answered));
+
+        record[0] = 2;
+        assertTrue(PendingRequestRecord.decode(manager, record).isEmpty());
+        assertTrue(PendingRequestRecord.decode(manager, Arrays.copyOf(record, 4)).isEmpty());
+        assertTrue(PendingRequestRecord.decode(manager, null).isEmpty());
+    }
+
+    private RestoredPermissionRequest newAnsweredRequest() {
+        String[] permissions = {CAMERA};
+        RestoredPermissionRequest request = new RestoredPermissionRequest(manager, permissions, "answered", 7);
+        request.setAnswer(new PermissionResult(permissions, 0b1L, 0));
+        return request;
+    }
+}
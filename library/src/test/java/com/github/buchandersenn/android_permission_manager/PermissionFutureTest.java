@@ -0,0 +1,84 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PermissionFutureTest {
+    private final QueueExecutor callbackExecutor = new QueueExecutor();
+    private final AtomicInteger delivered = new AtomicInteger();
+
+    @Test
+    public void deliversResultOnCallbackExecutor() {
+        PermissionFuture future = createFuture();
+
+        future.run();
+        assertEquals(0, delivered.get());
+
+        callbackExecutor.runAll();
+        assertEquals(1, delivered.get());
+        assertFalse(future.cancel(false));
+    }
+
+    @Test
+    public void cancelBeforeEvaluationPreventsDelivery() {
+        PermissionFuture future = createFuture();
+
+        assertTrue(future.cancel(false));
+        future.run();
+        callbackExecutor.runAll();
+
+        assertEquals(0, delivered.get());
+        assertTrue(future.isCancelled());
+    }
+
+    @Test
+    public void cancelAfterEvaluationPreventsDelivery() {
+        PermissionFuture future = createFuture();
+
+        // The evaluation has completed and the delivery is posted, but hasn't run yet...
+        future.run();
+        assertTrue(future.cancel(false));
+        callbackExecutor.runAll();
+
+        assertEquals(0, delivered.get());
+    }
+
+    private PermissionFuture createFuture() {
+        return new PermissionFuture(new Callable<PermissionResult>() {
+            @Override
+            public PermissionResult call() {
+                return null;
+            }
+        }, callbackExecutor, new PermissionFuture.ResultHandler() {
+            @Override
+            public void onResult(PermissionResult result) {
+                delivered.incrementAndGet();
+            }
+        });
+    }
+
+    private static class QueueExecutor implements Executor {
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+}
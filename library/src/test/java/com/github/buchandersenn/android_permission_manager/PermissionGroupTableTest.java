@@ -0,0 +1,58 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class PermissionGroupTableTest {
+    @Test
+    public void selectsTableForPlatformLevel() {
+        assertNull(PermissionGroupTable.forSdkInt(22));
+        assertSame(PermissionGroupTable.MARSHMALLOW, PermissionGroupTable.forSdkInt(23));
+        assertSame(PermissionGroupTable.OREO, PermissionGroupTable.forSdkInt(27));
+        assertSame(PermissionGroupTable.PIE, PermissionGroupTable.forSdkInt(28));
+        assertSame(PermissionGroupTable.Q, PermissionGroupTable.forSdkInt(29));
+        assertSame(PermissionGroupTable.R, PermissionGroupTable.forSdkInt(30));
+        assertSame(PermissionGroupTable.R, PermissionGroupTable.forSdkInt(33));
+    }
+
+    @Test
+    public void backgroundLocationIsUngroupedFromR() {
+        PermissionGroupTable table = PermissionGroupTable.R;
+
+        assertEquals(PermissionGroupTable.NO_GROUP, table.getGroup("android.permission.ACCESS_BACKGROUND_LOCATION"));
+        assertEquals(table.getGroup("android.permission.ACCESS_FINE_LOCATION"), table.getGroup("android.permission.ACCESS_COARSE_LOCATION"));
+        assertEquals(table.getGroup("android.permission.READ_EXTERNAL_STORAGE"), table.getGroup("android.permission.ACCESS_MEDIA_LOCATION"));
+    }
+
+    @Test
+    public void groupsPermissionsAddedInQ() {
+        PermissionGroupTable table = PermissionGroupTable.Q;
+
+        assertEquals(table.getGroup("android.permission.ACCESS_FINE_LOCATION"), table.getGroup("android.permission.ACCESS_BACKGROUND_LOCATION"));
+        assertEquals(table.getGroup("android.permission.READ_EXTERNAL_STORAGE"), table.getGroup("android.permission.ACCESS_MEDIA_LOCATION"));
+        assertNotEquals(PermissionGroupTable.NO_GROUP, table.getGroup("android.permission.ACTIVITY_RECOGNITION"));
+        assertNotEquals(table.getGroup("android.permission.BODY_SENSORS"), table.getGroup("android.permission.ACTIVITY_RECOGNITION"));
+    }
+
+    @Test
+    public void permissionsAfterQAreUngrouped() {
+        assertEquals(PermissionGroupTable.NO_GROUP, PermissionGroupTable.R.getGroup("android.permission.POST_NOTIFICATIONS"));
+        assertEquals(PermissionGroupTable.NO_GROUP, PermissionGroupTable.PIE.getGroup("android.permission.ACCESS_BACKGROUND_LOCATION"));
+    }
+
+    @Test
+    public void representativeMaskSelectsOnePermissionPerGroup() {
+        String[] permissions = {
+                "android.permission.ACCESS_FINE_LOCATION",
+                "android.permission.ACCESS_BACKGROUND_LOCATION",
+                "android.permission.ACTIVITY_RECOGNITION"};
+
+        assertEquals(0b101L, PermissionGroupTable.Q.getRepresentativeMask(permissions, 0b111L));
+        assertEquals(0b111L, PermissionGroupTable.PIE.getRepresentativeMask(permissions, 0b111L));
+        assertEquals(0b111L, PermissionGroupTable.R.getRepresentativeMask(permissions, 0b111L));
+    }
+}
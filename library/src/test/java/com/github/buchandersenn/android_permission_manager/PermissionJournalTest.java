@@ -0,0 +1,123 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PermissionJournalTest {
+    private static final Pattern EVENT_LINE = Pattern.compile("  #\\d+ \\S+ (\\w+) requestCode=(\\d+) \\w+=\\[(\\S+)\\].*");
+    private static final String[] EVENT_NAMES = {
+            "CHECK", "REQUEST", "RATIONALE_ACCEPTED", "COALESCED", "SCHEDULED", "DISPATCHED",
+            "RESULT", "CALLBACK_GRANTED", "CALLBACK_DENIED", "CALLBACK_PARTIALLY_GRANTED", "CALLBACK_SHOW_RATIONALE"};
+
+    @Test
+    public void dumpsEventsOldestFirst() {
+        PermissionJournal journal = new PermissionJournal(4);
+        String[] permissions = {"a", "b"};
+        journal.record(PermissionJournal.REQUEST, 1, permissions, 0);
+        journal.record(PermissionJournal.RESULT, 1, permissions, 0b01L);
+
+        String dump = dump(journal);
+        assertTrue(dump, dump.contains("2 events, showing the last 2"));
+        assertTrue(dump, dump.indexOf(" REQUEST requestCode=1 permissions=[a, b]") < dump.indexOf(" RESULT requestCode=1 granted=[a] denied=[b]"));
+    }
+
+    @Test
+    public void keepsOnlyTheNewestEvents() {
+        PermissionJournal journal = new PermissionJournal(3);
+        for (int i = 0; i < 10; i++) {
+            journal.record(PermissionJournal.CHECK, i, null, 0);
+        }
+
+        String dump = dump(journal);
+        assertEquals(4, journal.getCapacity());
+        assertTrue(dump, dump.contains("10 events, showing the last 4"));
+        assertTrue(dump, dump.contains("requestCode=6") && dump.contains("requestCode=9"));
+        assertTrue(dump, !dump.contains("requestCode=5"));
+    }
+
+    @Test
+    public void clearDiscardsEvents() {
+        PermissionJournal journal = new PermissionJournal(4);
+        journal.record(PermissionJournal.CHECK, 1, null, 0);
+        journal.clear();
+        journal.record(PermissionJournal.CHECK, 2, null, 0);
+
+        String dump = dump(journal);
+        assertEquals(1, journal.getEventCount());
+        assertTrue(dump, dump.contains("requestCode=2") && !dump.contains("requestCode=1"));
+    }
+
+    @Test
+    public void concurrentWritersNeverProduceTornEvents() throws Exception {
+        // A tiny journal, so the writers constantly wrap onto the same slots...
+        final PermissionJournal journal = new PermissionJournal(2);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicInteger nextValue = new AtomicInteger();
+        final String[][] permissions = new String[EVENT_NAMES.length][];
+        for (int i = 0; i < permissions.length; i++) {
+            permissions[i] = new String[]{"p" + i};
+        }
+
+        List<Thread> writers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            writers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (running.get()) {
+                        // Every field of an event is derived from the same value...
+                        int value = nextValue.getAndIncrement() & Integer.MAX_VALUE;
+                        int event = value % EVENT_NAMES.length;
+                        journal.record(event, value, permissions[event], -1L);
+                    }
+                }
+            }));
+        }
+        for (Thread writer : writers) {
+            writer.start();
+        }
+
+        int checkedEvents = 0;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        try {
+            for (int i = 0; i < 2000 || (checkedEvents < 100 && System.nanoTime() < deadline); i++) {
+                for (String line : dump(journal).split("\n")) {
+                    Matcher matcher = EVENT_LINE.matcher(line);
+                    if (!matcher.matches()) {
+                        continue;
+                    }
+
+                    int value = Integer.parseInt(matcher.group(2));
+                    int event = value % EVENT_NAMES.length;
+                    assertEquals(line, EVENT_NAMES[event], matcher.group(1));
+                    assertEquals(line, "p" + event, matcher.group(3));
+                    checkedEvents++;
+                }
+            }
+        } finally {
+            running.set(false);
+            for (Thread writer : writers) {
+                writer.join();
+            }
+        }
+
+        assertTrue(checkedEvents > 0);
+    }
+
+    private static String dump(PermissionJournal journal) {
+        StringWriter output = new StringWriter();
+        journal.dump(new PrintWriter(output));
+        return output.toString();
+    }
+}
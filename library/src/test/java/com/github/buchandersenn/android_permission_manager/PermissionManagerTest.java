@@ -0,0 +1,177 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import com.github.buchandersenn.android_permission_manager.callbacks.OnPermissionDeniedCallback;
+import com.github.buchandersenn.android_permission_manager.callbacks.OnPermissionGrantedCallback;
+import com.github.buchandersenn.android_permission_manager.callbacks.OnPermissionPartiallyGrantedCallback;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PermissionManagerTest {
+    private static final String CAMERA = "android.permission.CAMERA";
+    private static final String READ_CONTACTS = "android.permission.READ_CONTACTS";
+    private static final String ACCESS_FINE_LOCATION = "android.permission.ACCESS_FINE_LOCATION";
+
+    private final RecordingBackend backend = new RecordingBackend();
+
+    @Test
+    public void requestsPermissionsInTheOrderGiven() {
+        PermissionManager manager = backend.createPermissionManager();
+
+        manager.with(READ_CONTACTS, CAMERA, ACCESS_FINE_LOCATION).request();
+
+        assertEquals(1, backend.requestedPermissions.size());
+        assertArrayEquals(new String[]{READ_CONTACTS, CAMERA, ACCESS_FINE_LOCATION}, backend.requestedPermissions.get(0));
+    }
+
+    @Test
+    public void requestsPermissionSetInSortedOrder() {
+        PermissionManager manager = backend.createPermissionManager();
+
+        manager.with(PermissionSet.of(READ_CONTACTS, CAMERA, ACCESS_FINE_LOCATION)).request();
+
+        assertArrayEquals(new String[]{ACCESS_FINE_LOCATION, CAMERA, READ_CONTACTS}, backend.requestedPermissions.get(0));
+    }
+
+    @Test
+    public void reportsPartialResultInTheOrderGiven() {
+        PermissionManager manager = backend.createPermissionManager();
+        backend.setGrantPolicy(new SimulatedPermissionBackend.GrantPolicy() {
+            @Override
+            public boolean grant(String permission) {
+                return !permission.equals(CAMERA);
+            }
+        });
+
+        final List<String[]> results = new ArrayList<>();
+        manager.with(READ_CONTACTS, CAMERA, ACCESS_FINE_LOCATION)
+                .onPermissionPartiallyGranted(new OnPermissionPartiallyGrantedCallback() {
+                    @Override
+                    public void onPermissionPartiallyGranted(String[] grantedPermissions, String[] deniedPermissions) {
+                        results.add(grantedPermissions);
+                        results.add(deniedPermissions);
+                    }
+                })
+                .request();
+
+        assertEquals(2, results.size());
+        assertArrayEquals(new String[]{READ_CONTACTS, ACCESS_FINE_LOCATION}, results.get(0));
+        assertArrayEquals(new String[]{CAMERA}, results.get(1));
+    }
+
+    @Test
+    public void coalescesRequestsForTheSamePermissionsInAnyOrder() {
+        PermissionManager manager = backend.createPermissionManager();
+        backend.setResultExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                // Never answer, so the first request stays in flight...
+            }
+        });
+
+        manager.with(READ_CONTACTS, CAMERA).request();
+        manager.with(CAMERA, READ_CONTACTS).request();
+
+        assertEquals(1, backend.requestedPermissions.size());
+        assertEquals(1, manager.getPendingRequestCount());
+    }
+
+    @Test
+    public void answersRequestAsDeniedWhenTheBackendFailsAndDispatchesTheNext() {
+        PermissionManager manager = backend.createPermissionManager();
+        backend.failNextRequest = true;
+
+        final List<String> denied = new ArrayList<>();
+        try {
+            manager.with(CAMERA)
+                    .onPermissionDenied(new OnPermissionDeniedCallback() {
+                        @Override
+                        public void onPermissionDenied() {
+                            denied.add(CAMERA);
+                        }
+                    })
+                    .request();
+        } catch (IllegalArgumentException expected) {
+            // The failure is passed on to the caller...
+        }
+
+        assertEquals(1, denied.size());
+        assertEquals(0, manager.getPendingRequestCount());
+
+        manager.with(READ_CONTACTS).request();
+        assertEquals(2, backend.requestedPermissions.size());
+        assertArrayEquals(new String[]{READ_CONTACTS}, backend.requestedPermissions.get(1));
+    }
+
+    @Test
+    public void neverDropsTheRequestInFlightForItsAge() throws Exception {
+        PermissionManager manager = backend.createPermissionManager();
+        manager.setMaxPendingRequestAge(1, TimeUnit.MILLISECONDS);
+        final List<Runnable> deliveries = new ArrayList<>();
+        backend.setResultExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                deliveries.add(command);
+            }
+        });
+
+        final List<String> results = new ArrayList<>();
+        manager.with(CAMERA).onPermissionGranted(recordGranted(results, CAMERA)).onPermissionDenied(recordDenied(results, CAMERA)).request();
+        Thread.sleep(5);
+        manager.with(READ_CONTACTS).onPermissionGranted(recordGranted(results, READ_CONTACTS)).onPermissionDenied(recordDenied(results, READ_CONTACTS)).request();
+
+        // The contacts request waits for the camera dialog instead of replacing it...
+        assertEquals(1, deliveries.size());
+        assertEquals(0, manager.getDroppedRequestCount());
+
+        deliveries.remove(0).run();
+        assertEquals(1, deliveries.size());
+        deliveries.remove(0).run();
+
+        assertEquals(2, results.size());
+        assertEquals(CAMERA + " granted", results.get(0));
+        assertEquals(READ_CONTACTS + " granted", results.get(1));
+        assertEquals(0, manager.getPendingRequestCount());
+    }
+
+    private static OnPermissionGrantedCallback recordGranted(final List<String> results, final String permission) {
+        return new OnPermissionGrantedCallback() {
+            @Override
+            public void onPermissionGranted() {
+                results.add(permission + " granted");
+            }
+        };
+    }
+
+    private static OnPermissionDeniedCallback recordDenied(final List<String> results, final String permission) {
+        return new OnPermissionDeniedCallback() {
+            @Override
+            public void onPermissionDenied() {
+                results.add(permission + " denied");
+            }
+        };
+    }
+
+    private static class RecordingBackend extends SimulatedPermissionBackend {
+        private final List<String[]> requestedPermissions = new ArrayList<>();
+        private boolean failNextRequest;
+
+        @Override
+        public void requestPermissions(int requestCode, String[] permissions) {
+            requestedPermissions.add(permissions.clone());
+            if (failNextRequest) {
+                // E.g. a support library activity refusing a request code above 255...
+                failNextRequest = false;
+                throw new IllegalArgumentException("Can only use lower 8 bits for requestCode");
+            }
+            super.requestPermissions(requestCode, permissions);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PermissionMetricsTest {
+    private static final String[] PERMISSIONS = {"android.permission.CAMERA", "android.permission.READ_CONTACTS"};
+
+    @Test
+    public void countsOwnRequestCodesPerCodeAndBorrowedRequestCodesPerPage() {
+        PermissionMetrics metrics = new PermissionMetrics();
+
+        metrics.record(PermissionMetrics.GRANTED, PERMISSIONS, 3, 255);
+        metrics.record(PermissionMetrics.GRANTED, PERMISSIONS, 1, 256);
+        metrics.record(PermissionMetrics.DENIED, PERMISSIONS, 2, 511);
+        metrics.record(PermissionMetrics.DENIED, PERMISSIONS, 3, PermissionRequestRegistry.MAX_REQUEST_CODE);
+
+        PermissionMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(1, snapshot.getRequestCodes().size());
+        assertEquals(2, snapshot.getRequestCodes().get(255).getGranted());
+
+        assertEquals(2, snapshot.getPages().size());
+        assertEquals(1, snapshot.getPages().get(1).getGranted());
+        assertEquals(1, snapshot.getPages().get(1).getDenied());
+        assertEquals(2, snapshot.getPages().get(255).getDenied());
+        assertTrue(snapshot.toString().contains("; page 1: granted=1, denied=1"));
+    }
+
+    @Test
+    public void countsRequestCodesOutOfRangeOnlyPerPermission() {
+        PermissionMetrics metrics = new PermissionMetrics();
+
+        metrics.record(PermissionMetrics.GRANTED, PERMISSIONS, 1, -1);
+        metrics.record(PermissionMetrics.GRANTED, PERMISSIONS, 1, PermissionRequestRegistry.MAX_REQUEST_CODE + 1);
+
+        PermissionMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.getPermissions().get(PERMISSIONS[0]).getGranted());
+        assertTrue(snapshot.getRequestCodes().isEmpty());
+        assertTrue(snapshot.getPages().isEmpty());
+
+        metrics.record(PermissionMetrics.DENIED, PERMISSIONS, 1, 1000);
+        metrics.reset();
+        assertTrue(metrics.snapshot().getPages().isEmpty());
+    }
+
+    @Test
+    public void countsCoalescedRequestsUnderTheAnsweredRequestCode() {
+        final List<Runnable> deliveries = new ArrayList<>();
+        SimulatedPermissionBackend backend = new SimulatedPermissionBackend().setResultExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                deliveries.add(command);
+            }
+        });
+        PermissionManager manager = backend.createPermissionManager();
+        PermissionMetrics metrics = new PermissionMetrics();
+        manager.setPermissionMetrics(metrics);
+
+        manager.with(PERMISSIONS).request();
+        manager.with(PERMISSIONS[0]).request();
+        assertEquals(1, deliveries.size());
+        deliveries.get(0).run();
+
+        PermissionMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(1, snapshot.getRequestCodes().size());
+        // Two permissions granted to the request and one to the request waiting for it...
+        assertEquals(3, snapshot.getRequestCodes().get(0).getGranted());
+    }
+}
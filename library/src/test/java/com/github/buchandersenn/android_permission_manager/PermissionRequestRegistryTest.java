@@ -0,0 +1,132 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PermissionRequestRegistryTest {
+    private static final int THREAD_COUNT = 4;
+    private static final int ITERATIONS = 20000;
+
+    private final PermissionManager manager = new SimulatedPermissionBackend().createPermissionManager();
+
+    @Test
+    public void borrowsPageOnceOwnCodesAreInUse() {
+        PermissionRequestRegistry.Host host = PermissionRequestRegistry.getInstance().register(true);
+        List<PermissionRequest> requests = fillOwnCodes(host);
+
+        PermissionRequest request = newRequest();
+        int requestCode = host.allocate(request);
+        assertTrue(requestCode >= PermissionRequestRegistry.PAGE_SIZE);
+        assertSame(request, host.get(requestCode));
+
+        // The page is kept while it has a request, and given back once it is empty...
+        host.releaseEmptyPages();
+        assertSame(request, host.get(requestCode));
+        assertSame(request, host.release(requestCode));
+        host.releaseEmptyPages();
+        assertEquals(null, host.get(requestCode));
+
+        releaseOwnCodes(host, requests);
+        assertEquals(0, host.size());
+    }
+
+    @Test
+    public void concurrentAllocateAndReleaseEmptyPagesKeepEveryRequestRoutable() throws Exception {
+        final PermissionRequestRegistry.Host host = PermissionRequestRegistry.getInstance().register(true);
+        List<PermissionRequest> ownRequests = fillOwnCodes(host);
+        final AtomicInteger nextThread = new AtomicInteger();
+        final AtomicInteger runningAllocators = new AtomicInteger(THREAD_COUNT - 1);
+        final AtomicInteger failures = new AtomicInteger();
+
+        runConcurrently(new Callable<Void>() {
+            @Override
+            public Void call() {
+                // One thread keeps giving the empty pages back, while the others allocate on the
+                // borrowed pages, so pages are given back and borrowed again constantly...
+                if (nextThread.getAndIncrement() == 0) {
+                    while (runningAllocators.get() > 0) {
+                        host.releaseEmptyPages();
+                    }
+                    return null;
+                }
+
+                PermissionRequest request = newRequest();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    int requestCode = host.allocate(request);
+                    if (requestCode < PermissionRequestRegistry.PAGE_SIZE || host.get(requestCode) != request) {
+                        failures.incrementAndGet();
+                    }
+                    if (requestCode != -1 && host.release(requestCode) != request) {
+                        failures.incrementAndGet();
+                    }
+                }
+                runningAllocators.decrementAndGet();
+
+                return null;
+            }
+        });
+
+        assertEquals(0, failures.get());
+        releaseOwnCodes(host, ownRequests);
+        host.releaseEmptyPages();
+        assertEquals(0, host.size());
+    }
+
+    private List<PermissionRequest> fillOwnCodes(PermissionRequestRegistry.Host host) {
+        List<PermissionRequest> requests = new ArrayList<>();
+        for (int i = 0; i < PermissionRequestRegistry.PAGE_SIZE; i++) {
+            PermissionRequest request = newRequest();
+            assertEquals(i, host.allocate(request));
+            requests.add(request);
+        }
+
+        return requests;
+    }
+
+    private static void releaseOwnCodes(PermissionRequestRegistry.Host host, List<PermissionRequest> requests) {
+        for (int i = 0; i < requests.size(); i++) {
+            assertSame(requests.get(i), host.release(i));
+        }
+    }
+
+    private PermissionRequest newRequest() {
+        return new PermissionRequest(manager, new String[]{"android.permission.CAMERA"}, 0, null, null, null);
+    }
+
+    private static void runConcurrently(Callable<Void> task) throws Exception {
+        final CyclicBarrier start = new CyclicBarrier(THREAD_COUNT);
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                final Callable<Void> threadTask = task;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await(10, TimeUnit.SECONDS);
+                        return threadTask.call();
+                    }
+                }));
+            }
+
+            for (Future<Void> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
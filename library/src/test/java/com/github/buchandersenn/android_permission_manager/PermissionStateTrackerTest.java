@@ -0,0 +1,82 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import com.github.buchandersenn.android_permission_manager.callbacks.OnPermissionStateChangedCallback;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class PermissionStateTrackerTest {
+    private static final String CAMERA = "android.permission.CAMERA";
+    private static final String READ_CONTACTS = "android.permission.READ_CONTACTS";
+    private static final String RECORD_AUDIO = "android.permission.RECORD_AUDIO";
+
+    private final SimulatedPermissionBackend backend = new SimulatedPermissionBackend();
+    private final PermissionManager manager = backend.createPermissionManager();
+    private final List<String> notifications = new ArrayList<>();
+
+    @Test
+    public void notifiesOnlyActualChanges() {
+        manager.observe(new RecordingCallback("a"), CAMERA, READ_CONTACTS);
+
+        assertEquals(0, manager.refreshPermissionStates());
+        backend.setGranted(CAMERA, true);
+        assertEquals(1, manager.refreshPermissionStates());
+        assertEquals(0, manager.refreshPermissionStates());
+
+        assertEquals(Arrays.asList("a:" + CAMERA + "=true"), notifications);
+    }
+
+    @Test
+    public void callbackCanUnsubscribeDuringRefresh() {
+        final PermissionSubscription[] later = new PermissionSubscription[1];
+        final PermissionSubscription[] self = new PermissionSubscription[1];
+        self[0] = manager.observe(new RecordingCallback("first") {
+            @Override
+            public void onPermissionStateChanged(String permission, boolean granted) {
+                super.onPermissionStateChanged(permission, granted);
+                self[0].unsubscribe();
+                later[0].unsubscribe();
+            }
+        }, CAMERA);
+        later[0] = manager.observe(new RecordingCallback("later"), CAMERA, READ_CONTACTS);
+        manager.observe(new RecordingCallback("other"), READ_CONTACTS, RECORD_AUDIO);
+
+        backend.setGranted(CAMERA, true);
+        backend.setGranted(READ_CONTACTS, true);
+        backend.setGranted(RECORD_AUDIO, true);
+        assertEquals(3, manager.refreshPermissionStates());
+
+        // The unsubscribed subscriptions aren't notified, and the remaining subscription gets
+        // exactly the permissions it observes...
+        assertEquals(Arrays.asList(
+                "first:" + CAMERA + "=true",
+                "other:" + READ_CONTACTS + "=true",
+                "other:" + RECORD_AUDIO + "=true"), notifications);
+        assertFalse(later[0].isSubscribed());
+
+        notifications.clear();
+        backend.setGranted(CAMERA, false);
+        backend.setGranted(RECORD_AUDIO, false);
+        assertEquals(1, manager.refreshPermissionStates());
+        assertEquals(Arrays.asList("other:" + RECORD_AUDIO + "=false"), notifications);
+    }
+
+    private class RecordingCallback implements OnPermissionStateChangedCallback {
+        private final String name;
+
+        RecordingCallback(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void onPermissionStateChanged(String permission, boolean granted) {
+            notifications.add(name + ":" + permission + "=" + granted);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import com.github.buchandersenn.android_permission_manager.callbacks.OnPermissionDeniedCallback;
+import com.github.buchandersenn.android_permission_manager.callbacks.OnPermissionGrantedCallback;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PreparedPermissionRequestTest {
+    private static final String CAMERA = "android.permission.CAMERA";
+    private static final String READ_CONTACTS = "android.permission.READ_CONTACTS";
+
+    private final SimulatedPermissionBackend backend = new SimulatedPermissionBackend().setGranted(CAMERA, true);
+    private final CountingCallback callback = new CountingCallback();
+
+    @Test
+    public void reusesResultWhileGrantedPermissionsAreUnchanged() {
+        PreparedPermissionRequest prepared = prepare(backend.createPermissionManager());
+
+        prepared.check();
+        PermissionResult result = prepared.getPermissionResult();
+        prepared.check();
+        assertSame(result, prepared.getPermissionResult());
+
+        backend.setGranted(READ_CONTACTS, true);
+        prepared.check();
+        assertNotSame(result, prepared.getPermissionResult());
+        assertTrue(prepared.getPermissionResult().isGranted());
+        assertEquals(1, callback.granted);
+        assertEquals(2, callback.denied);
+    }
+
+    @Test
+    public void reportsCachedStateOfEachEvaluation() {
+        PermissionManager manager = backend.createPermissionManager();
+        manager.setPermissionStateCache(new PermissionStateCache());
+        PreparedPermissionRequest prepared = prepare(manager);
+
+        // The first check fills the cache, so only the second is served from it...
+        prepared.check();
+        assertFalse(prepared.getPermissionResult().isCached());
+        prepared.check();
+        assertTrue(prepared.getPermissionResult().isCached());
+
+        manager.getPermissionStateCache().invalidate();
+        prepared.check();
+        assertFalse(prepared.getPermissionResult().isCached());
+    }
+
+    @Test
+    public void checkDoesNotAllocateOnceWarm() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        Assume.assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+        PermissionManager manager = backend.createPermissionManager();
+        manager.setPermissionStateCache(new PermissionStateCache());
+        PreparedPermissionRequest prepared = prepare(manager);
+        for (int i = 0; i < 20000; i++) {
+            prepared.check();
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = allocationBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 10000; i++) {
+            prepared.check();
+        }
+        long allocated = allocationBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        // Allow for a little noise from the measurement itself, which is far less than a
+        // single allocation per check...
+        assertTrue("Allocated " + allocated + " bytes for 10000 checks", allocated < 1024);
+        assertEquals(30000, callback.denied);
+    }
+
+    private PreparedPermissionRequest prepare(PermissionManager manager) {
+        return manager.with(CAMERA, READ_CONTACTS)
+                .onPermissionGranted(callback)
+                .onPermissionDenied(callback)
+                .prepare();
+    }
+
+    private static class CountingCallback implements OnPermissionGrantedCallback, OnPermissionDeniedCallback {
+        private int granted;
+        private int denied;
+
+        @Override
+        public void onPermissionGranted() {
+            granted++;
+        }
+
+        @Override
+        public void onPermissionDenied() {
+            denied++;
+        }
+    }
+}
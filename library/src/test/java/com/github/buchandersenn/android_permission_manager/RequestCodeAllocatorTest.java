@@ -0,0 +1,222 @@
+package com.github.buchandersenn.android_permission_manager;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RequestCodeAllocatorTest {
+    private static final int THREAD_COUNT = 8;
+    private static final int ITERATIONS = 20000;
+
+    @Test
+    public void allocatesLowestUnusedCode() {
+        RequestCodeAllocator<Object> allocator = new RequestCodeAllocator<>();
+        Object value = new Object();
+
+        assertEquals(0, allocator.allocate(value));
+        assertEquals(1, allocator.allocate(value));
+        assertTrue(allocator.reserve(3, value));
+        assertEquals(2, allocator.allocate(value));
+        assertEquals(4, allocator.allocate(value));
+
+        assertSame(value, allocator.release(1));
+        assertEquals(1, allocator.allocate(value));
+        assertEquals(5, allocator.size());
+    }
+
+    @Test
+    public void returnsMinusOneWhenAllCodesAreInUse() {
+        RequestCodeAllocator<Object> allocator = new RequestCodeAllocator<>();
+        for (int i = 0; i < RequestCodeAllocator.REQUEST_CODE_COUNT; i++) {
+            assertEquals(i, allocator.allocate(i));
+        }
+
+        assertEquals(-1, allocator.allocate(new Object()));
+        assertFalse(allocator.reserve(200, new Object()));
+        assertEquals(RequestCodeAllocator.REQUEST_CODE_COUNT, allocator.size());
+    }
+
+    @Test
+    public void releaseOfUnusedCodeReturnsNull() {
+        RequestCodeAllocator<Object> allocator = new RequestCodeAllocator<>();
+
+        assertNull(allocator.release(7));
+        assertNull(allocator.release(-1));
+        assertNull(allocator.release(RequestCodeAllocator.REQUEST_CODE_COUNT));
+        assertEquals(0, allocator.size());
+    }
+
+    @Test
+    public void closeOnlySucceedsWhileNoCodeIsInUse() {
+        RequestCodeAllocator<Object> allocator = new RequestCodeAllocator<>();
+        Object value = new Object();
+        assertTrue(allocator.reserve(200, value));
+
+        assertFalse(allocator.close());
+        assertEquals(0, allocator.allocate(value));
+        assertSame(value, allocator.release(0));
+        assertSame(value, allocator.release(200));
+
+        assertTrue(allocator.close());
+        assertEquals(-1, allocator.allocate(value));
+        assertFalse(allocator.reserve(7, value));
+        assertNull(allocator.get(7));
+        assertNull(allocator.release(7));
+        assertFalse(allocator.close());
+    }
+
+    @Test
+    public void concurrentAllocateAndReleaseNeverHandOutTheSameCodeTwice() throws Exception {
+        final RequestCodeAllocator<Object> allocator = new RequestCodeAllocator<>();
+        final AtomicIntegerArray holders = new AtomicIntegerArray(RequestCodeAllocator.REQUEST_CODE_COUNT);
+        final AtomicInteger failures = new AtomicInteger();
+
+        runConcurrently(new Callable<Void>() {
+            @Override
+            public Void call() {
+                // Each thread holds a few codes at a time, so the codes are reused constantly...
+                Object value = new Object();
+                int[] held = new int[4];
+                for (int i = 0; i < ITERATIONS; i++) {
+                    for (int j = 0; j < held.length; j++) {
+                        held[j] = allocator.allocate(value);
+                        if (held[j] == -1 || holders.incrementAndGet(held[j]) != 1) {
+                            failures.incrementAndGet();
+                        }
+                    }
+
+                    for (int code : held) {
+                        if (code == -1) {
+                            continue;
+                        }
+                        if (allocator.get(code) != value) {
+                            failures.incrementAndGet();
+                        }
+                        holders.decrementAndGet(code);
+                        if (allocator.release(code) != value) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+
+                return null;
+            }
+        });
+
+        assertEquals(0, failures.get());
+        assertEquals(0, allocator.size());
+        assertEquals(-1, allocator.nextUsed(0));
+    }
+
+    @Test
+    public void concurrentReserveOfTheSameCodeSucceedsOnce() throws Exception {
+        final RequestCodeAllocator<Object> allocator = new RequestCodeAllocator<>();
+        final AtomicInteger reserved = new AtomicInteger();
+
+        runConcurrently(new Callable<Void>() {
+            @Override
+            public Void call() {
+                if (allocator.reserve(42, Thread.currentThread())) {
+                    reserved.incrementAndGet();
+                }
+
+                return null;
+            }
+        });
+
+        assertEquals(1, reserved.get());
+        assertEquals(1, allocator.size());
+        assertEquals(42, allocator.nextUsed(0));
+    }
+
+    @Test
+    public void concurrentAllocateReserveAndReleaseKeepSizeConsistent() throws Exception {
+        final RequestCodeAllocator<Object> allocator = new RequestCodeAllocator<>();
+        final int codesPerThread = RequestCodeAllocator.REQUEST_CODE_COUNT / THREAD_COUNT;
+        final AtomicInteger nextThread = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final CyclicBarrier allocated = new CyclicBarrier(THREAD_COUNT);
+
+        runConcurrently(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                // Half the codes are allocated and half are reserved, in a range of its own for
+                // each thread, so together the threads use every code...
+                int thread = nextThread.getAndIncrement();
+                Object value = new Object();
+                List<Integer> held = new ArrayList<>();
+                for (int i = 0; i < codesPerThread / 2; i++) {
+                    int requestCode = thread * codesPerThread + codesPerThread / 2 + i;
+                    if (!allocator.reserve(requestCode, value)) {
+                        // Another thread allocated the code first...
+                        requestCode = allocator.allocate(value);
+                    }
+                    int allocatedCode = allocator.allocate(value);
+                    if (requestCode == -1 || allocatedCode == -1) {
+                        failures.incrementAndGet();
+                        continue;
+                    }
+
+                    held.add(requestCode);
+                    held.add(allocatedCode);
+                }
+
+                allocated.await(10, TimeUnit.SECONDS);
+                if (allocator.size() != RequestCodeAllocator.REQUEST_CODE_COUNT) {
+                    failures.incrementAndGet();
+                }
+                allocated.await(10, TimeUnit.SECONDS);
+
+                for (int requestCode : held) {
+                    if (allocator.release(requestCode) != value) {
+                        failures.incrementAndGet();
+                    }
+                }
+
+                return null;
+            }
+        });
+
+        assertEquals(0, failures.get());
+        assertEquals(0, allocator.size());
+    }
+
+    private static void runConcurrently(Callable<Void> task) throws Exception {
+        final CyclicBarrier start = new CyclicBarrier(THREAD_COUNT);
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                final Callable<Void> threadTask = task;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await(10, TimeUnit.SECONDS);
+                        return threadTask.call();
+                    }
+                }));
+            }
+
+            for (Future<Void> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}